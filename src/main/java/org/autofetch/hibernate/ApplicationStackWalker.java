@@ -0,0 +1,162 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Collects the first application frames of the current thread with
+ * {@code java.lang.StackWalker}, which only materializes the frames it is
+ * asked for. The project is compiled for Java 7, so the walker is looked up
+ * reflectively; on runtimes without it {@link #isAvailable()} is false and
+ * callers capture the whole stack trace instead.
+ */
+final class ApplicationStackWalker {
+
+    private static final Object WALKER;
+
+    private static final Method WALK;
+
+    private static final Method STREAM_ITERATOR;
+
+    private static final Method GET_CLASS_NAME;
+
+    private static final Method IS_NATIVE_METHOD;
+
+    private static final Method TO_STACK_TRACE_ELEMENT;
+
+    /**
+     * Constructor of a {@code java.util.function.Function} proxy class, so
+     * that no proxy class lookup is needed per walk.
+     */
+    private static final Constructor<?> FUNCTION;
+
+    static {
+        Object walker = null;
+        Method walk = null;
+        Method streamIterator = null;
+        Method getClassName = null;
+        Method isNativeMethod = null;
+        Method toStackTraceElement = null;
+        Constructor<?> function = null;
+        try {
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> functionClass = Class.forName("java.util.function.Function");
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = walkerClass.getMethod("walk", functionClass);
+            streamIterator = Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+            Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            getClassName = frameClass.getMethod("getClassName");
+            isNativeMethod = frameClass.getMethod("isNativeMethod");
+            toStackTraceElement = frameClass.getMethod("toStackTraceElement");
+            function = Proxy.getProxyClass(ApplicationStackWalker.class.getClassLoader(), functionClass)
+                    .getConstructor(InvocationHandler.class);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        STREAM_ITERATOR = streamIterator;
+        GET_CLASS_NAME = getClassName;
+        IS_NATIVE_METHOD = isNativeMethod;
+        TO_STACK_TRACE_ELEMENT = toStackTraceElement;
+        FUNCTION = function;
+    }
+
+    private ApplicationStackWalker() {
+    }
+
+    /**
+     * @return whether the runtime has a stack walker
+     */
+    static boolean isAvailable() {
+        return WALKER != null;
+    }
+
+    /**
+     * Walks the stack of the current thread until maxFrames application
+     * frames, as defined by {@link ProgramStack#isApplicationFrame}, have been
+     * found.
+     *
+     * @param maxFrames maximum number of application frames to collect
+     * @return the application frames, innermost first, or null if the
+     * runtime has no stack walker
+     */
+    static StackTraceElement[] applicationFrames(int maxFrames) {
+        if (WALKER == null) {
+            return null;
+        }
+        try {
+            Object function = FUNCTION.newInstance(new FrameCollector(maxFrames));
+            return (StackTraceElement[]) WALK.invoke(WALKER, function);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Implements {@code Function<Stream<StackFrame>, StackTraceElement[]>}.
+     * Stops pulling frames from the stream once enough application frames
+     * have been found, so the rest of the stack is never walked.
+     */
+    private static final class FrameCollector implements InvocationHandler {
+
+        private final int maxFrames;
+
+        FrameCollector(int maxFrames) {
+            this.maxFrames = maxFrames;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"apply".equals(method.getName())) {
+                // equals, hashCode and toString of the proxy
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return "FrameCollector[" + maxFrames + "]";
+            }
+            StackTraceElement[] frames = new StackTraceElement[maxFrames];
+            int numFrames = 0;
+            Iterator<?> stream = (Iterator<?>) STREAM_ITERATOR.invoke(args[0]);
+            while (numFrames < maxFrames && stream.hasNext()) {
+                Object frame = stream.next();
+                // Decoding the frame into a stack trace element is the expensive
+                // part, so framework frames are skipped by class name first
+                if (!ProgramStack.isFrameworkClass((String) GET_CLASS_NAME.invoke(frame))
+                        && !((Boolean) IS_NATIVE_METHOD.invoke(frame))) {
+                    frames[numFrames++] = (StackTraceElement) TO_STACK_TRACE_ELEMENT.invoke(frame);
+                }
+            }
+            return numFrames == maxFrames ? frames : Arrays.copyOf(frames, numFrames);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.hibernate.engine.spi.PersistentAttributeInterceptor;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Tracks accesses to an entity class enhanced at build time, e.g. by the
+ * hibernate-enhance-maven-plugin, instead of a javassist proxy. The enhanced
+ * class routes every read and write of a persistent field through this
+ * interceptor, which records the first access and otherwise just passes the
+ * value on, so an accessor costs a field read and a boolean check.
+ * <p>
+ * The interceptor also implements the TrackableEntity contract on behalf of
+ * the entity, see {@link Trackables}.
+ */
+public class AutofetchAttributeInterceptor implements PersistentAttributeInterceptor, TrackableEntity, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object entity;
+
+    private final EntityTracker entityTracker;
+
+    /**
+     * @param entity        enhanced entity to track
+     * @param metadata      property metadata of the entity class
+     * @param extentManager extent manager which keeps the traversal profiles
+     */
+    public AutofetchAttributeInterceptor(Object entity, EntityMetadata metadata, ExtentManager extentManager) {
+        this.entity = entity;
+        this.entityTracker = new EntityTracker(metadata, extentManager);
+    }
+
+    @Override
+    public boolean enableTracking() {
+        boolean oldValue = entityTracker.isTracking();
+        entityTracker.setTracking(true);
+        return oldValue;
+    }
+
+    @Override
+    public boolean disableTracking() {
+        boolean oldValue = entityTracker.isTracking();
+        entityTracker.setTracking(false);
+        return oldValue;
+    }
+
+    @Override
+    public void removeTracker(Statistics tracker) {
+        entityTracker.removeTracker(tracker);
+    }
+
+    @Override
+    public void addTracker(Statistics tracker) {
+        entityTracker.addTracker(tracker);
+    }
+
+    @Override
+    public void addTrackers(Set<Statistics> trackers) {
+        entityTracker.addTrackers(trackers);
+    }
+
+    @Override
+    public boolean isAccessed() {
+        return entityTracker.isAccessed();
+    }
+
+    @Override
+    public void extendProfile(Statistics tracker) {
+        entityTracker.extendProfile(tracker, entity);
+    }
+
+    @Override
+    public boolean readBoolean(Object obj, String name, boolean oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public boolean writeBoolean(Object obj, String name, boolean oldValue, boolean newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public byte readByte(Object obj, String name, byte oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public byte writeByte(Object obj, String name, byte oldValue, byte newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public char readChar(Object obj, String name, char oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public char writeChar(Object obj, String name, char oldValue, char newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public short readShort(Object obj, String name, short oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public short writeShort(Object obj, String name, short oldValue, short newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public int readInt(Object obj, String name, int oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public int writeInt(Object obj, String name, int oldValue, int newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public float readFloat(Object obj, String name, float oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public float writeFloat(Object obj, String name, float oldValue, float newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public double readDouble(Object obj, String name, double oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public double writeDouble(Object obj, String name, double oldValue, double newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public long readLong(Object obj, String name, long oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public long writeLong(Object obj, String name, long oldValue, long newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+
+    @Override
+    public Object readObject(Object obj, String name, Object oldValue) {
+        entityTracker.trackAccess(obj);
+        return oldValue;
+    }
+
+    @Override
+    public Object writeObject(Object obj, String name, Object oldValue, Object newValue) {
+        entityTracker.trackAccess(obj);
+        return newValue;
+    }
+}
@@ -24,6 +24,7 @@ import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projection;
@@ -31,6 +32,7 @@ import org.hibernate.internal.CriteriaImpl;
 import org.hibernate.sql.JoinType;
 import org.hibernate.transform.ResultTransformer;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -65,11 +67,13 @@ public class AutofetchCriteria implements Criteria {
         String classname = this.delegate.getEntityOrClassName();
 
         /// Add prefetch directives as needed
-        addPrefetch(this.delegate, classname);
+        TraversalProfile tp = getExtentManager().getTraversalProfile(classname);
+        addPrefetch(this.delegate, tp, classname);
         Iterator subCriteria = this.delegate.iterateSubcriteria();
         while (subCriteria.hasNext()) {
             Criteria sc = (Criteria) subCriteria.next();
-            addPrefetch(sc, makeTpKey(classname, sc.getAlias()));
+            String tpKey = makeTpKey(classname, sc.getAlias());
+            addPrefetch(sc, getExtentManager().getTraversalProfile(tpKey), tpKey);
         }
 
         List results = this.delegate.list();
@@ -78,6 +82,10 @@ public class AutofetchCriteria implements Criteria {
         ResultTransformer rt = delegate.getResultTransformer();
 
         // We can only handle transformers we know.
+        if (rt.equals(Criteria.DISTINCT_ROOT_ENTITY)
+                || rt.equals(Criteria.ROOT_ENTITY)) {
+            fetchSubselects(results, tp);
+        }
         if (rt.equals(Criteria.DISTINCT_ROOT_ENTITY)
                 || rt.equals(Criteria.ROOT_ENTITY)
                 || rt.equals(Criteria.ALIAS_TO_ENTITY_MAP)) {
@@ -90,7 +98,7 @@ public class AutofetchCriteria implements Criteria {
                         getExtentManager().markAsRoot(m.get(aliasKey), tpKey);
                     }
                 } else {
-                    getExtentManager().markAsRoot(o, classname);
+                    getExtentManager().markAsRoot(o, tp);
                 }
             }
         }
@@ -101,9 +109,11 @@ public class AutofetchCriteria implements Criteria {
     @Override
     public Object uniqueResult() throws HibernateException {
         String classname = this.delegate.getEntityOrClassName();
-        addPrefetch(this.delegate, classname);
+        TraversalProfile tp = getExtentManager().getTraversalProfile(classname);
+        addPrefetch(this.delegate, tp, classname);
         Object o = this.delegate.uniqueResult();
-        getExtentManager().markAsRoot(o, classname);
+        fetchSubselects(Collections.singletonList(o), tp);
+        getExtentManager().markAsRoot(o, tp);
         return o;
     }
 
@@ -152,12 +162,14 @@ public class AutofetchCriteria implements Criteria {
 
     @Override
     public ScrollableResults scroll() {
-        return delegate.scroll();
+        TraversalProfile tp = addScrollPrefetch();
+        return trackScroll(this.delegate.scroll(), tp);
     }
 
     @Override
     public ScrollableResults scroll(ScrollMode scrollMode) {
-        return delegate.scroll(scrollMode);
+        TraversalProfile tp = addScrollPrefetch();
+        return trackScroll(this.delegate.scroll(scrollMode), tp);
     }
 
     @Override
@@ -296,8 +308,8 @@ public class AutofetchCriteria implements Criteria {
         return this.delegate.addQueryHint(hint);
     }
 
-    private void addPrefetch(Criteria crit, String tpKey) {
-        List<Path> prefetchPaths = getExtentManager().getPrefetchPaths(tpKey);
+    private void addPrefetch(Criteria crit, TraversalProfile tp, String tpKey) {
+        List<Path> prefetchPaths = getExtentManager().getPrefetchPaths(tp);
         if (log.isDebugEnabled()) {
             log.debug("Prefetch paths for " + tpKey + ": " + prefetchPaths);
         }
@@ -307,6 +319,40 @@ public class AutofetchCriteria implements Criteria {
         }
     }
 
+    /**
+     * Adds prefetch directives for scrolling. Joined collections would
+     * repeat the root over several rows, so only to-one associations are
+     * prefetched while streaming.
+     *
+     * @return traversal profile of the query
+     */
+    private TraversalProfile addScrollPrefetch() {
+        String classname = this.delegate.getEntityOrClassName();
+        TraversalProfile tp = getExtentManager().getTraversalProfile(classname);
+        for (Path p : getExtentManager().getPrefetchPaths(tp)) {
+            if (!tp.crossesCollection(p)) {
+                this.delegate.setFetchMode(p.toString(), FetchMode.JOIN);
+            }
+        }
+        return tp;
+    }
+
+    private ScrollableResults trackScroll(ScrollableResults results, TraversalProfile tp) {
+        ResultTransformer rt = delegate.getResultTransformer();
+        if (rt.equals(Criteria.DISTINCT_ROOT_ENTITY)
+                || rt.equals(Criteria.ROOT_ENTITY)) {
+            return new AutofetchScrollableResults(results, getExtentManager(), tp);
+        }
+        return results;
+    }
+
+    private void fetchSubselects(List<?> results, TraversalProfile tp) {
+        List<Path> subselectPaths = getExtentManager().getPrefetchPaths(tp, PrefetchMode.SUBSELECT);
+        if (!subselectPaths.isEmpty()) {
+            SubselectFetcher.fetch((Session) this.delegate.getSession(), results, subselectPaths);
+        }
+    }
+
     private ExtentManager getExtentManager() {
         return this.delegate.getSession().getFactory().getServiceRegistry().getService(AutofetchService.class).getExtentManager();
     }
@@ -21,6 +21,7 @@ import org.hibernate.cache.spi.entry.CollectionCacheEntry;
 import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.engine.internal.CacheHelper;
 import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.CollectionKey;
 import org.hibernate.engine.spi.PersistenceContext;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.engine.spi.SessionImplementor;
@@ -31,6 +32,7 @@ import org.hibernate.persister.collection.CollectionPersister;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -77,23 +79,29 @@ public class AutofetchInitializeCollectionListener extends
                 CollectionPersister cp = ce.getLoadedPersister();
                 String classname = cp.getOwnerEntityPersister().getEntityName();
                 String tpKey = cp.getRole();
+                TraversalProfile tp = extentManager.getTraversalProfile(tpKey);
 
-                List<Path> prefetchPaths = extentManager.getPrefetchPaths(tpKey);
-                if (!prefetchPaths.isEmpty()) {
-                    String assoc = tpKey.substring(tpKey.lastIndexOf('.') + 1);
-                    List<Path> augmentedPaths = new ArrayList<>();
-                    augmentedPaths.add(new Path().addTraversal(assoc));
+                PrefetchPlan plan = extentManager.getPrefetchPlan(tp);
+                List<Path> prefetchPaths = plan.getPaths();
 
-                    for (Path p : prefetchPaths) {
-                        augmentedPaths.add(p.prependTraversal(assoc));
-                    }
+                // Keys of the other uninitialized collections of the same
+                // role which are loaded along with this one. Hibernate batches
+                // plain loads by itself according to the mapping.
+                int batchSize = prefetchPaths.isEmpty() ? cp.getBatchSize()
+                        : Math.min(extentManager.getBatchSize(), cp.getBatchSize());
+                Serializable[] keys = getCollectionBatch(ce, source, batchSize);
 
-                    log.debug("Prefetch paths: " + augmentedPaths);
-                    AutofetchLoadListener.getResult(augmentedPaths,
-                            classname,
-                            ce.getKey(),
-                            LockMode.NONE,
-                            event.getSession());
+                if (!prefetchPaths.isEmpty()) {
+                    if (keys.length > 1) {
+                        AutofetchLoadListener.getResults(getQueryString(plan, classname, tpKey, true),
+                                keys,
+                                event.getSession());
+                    } else {
+                        AutofetchLoadListener.getResult(getQueryString(plan, classname, tpKey, false),
+                                ce.getKey(),
+                                LockMode.NONE,
+                                event.getSession());
+                    }
 
                     if (!collection.wasInitialized()) {
                         throw new IllegalStateException("Collection not initialized");
@@ -105,29 +113,95 @@ public class AutofetchInitializeCollectionListener extends
                     }
                 }
 
-                boolean oldTracking = false;
-                if (collection instanceof Trackable) {
-                    Trackable trackable = (Trackable) collection;
-                    oldTracking = trackable.disableTracking();
-                }
-
-                Iterator elementsIter = collection.entries(cp);
-                while (elementsIter.hasNext()) {
-                    extentManager.markAsRoot(elementsIter.next(), tpKey);
-                }
-
-                if (collection instanceof Trackable) {
-                    Trackable trackable = (Trackable) collection;
-                    if (oldTracking) {
-                        trackable.enableTracking();
+                List<Object> elements = new ArrayList<>();
+                markElementsAsRoots(collection, cp, tp, elements);
+                PersistenceContext persistenceContext = source.getPersistenceContext();
+                for (int i = 1; i < keys.length; i++) {
+                    // Other collections of the batch don't come back here
+                    PersistentCollection other = persistenceContext.getCollection(new CollectionKey(cp, keys[i]));
+                    if (other != null && other.wasInitialized()) {
+                        markElementsAsRoots(other, cp, tp, elements);
                     }
                 }
+                SubselectFetcher.fetch(event.getSession(), elements, plan.getPaths(PrefetchMode.SUBSELECT));
 
                 log.trace("collection initialized");
             }
         }
     }
 
+    /**
+     * Returns the query which loads the owner of a collection, or the owners
+     * of several collections of the same role, along with the collection and
+     * the join paths of the prefetch plan of the role. The query is cached on
+     * the plan.
+     */
+    private static String getQueryString(PrefetchPlan plan, String classname, String role, boolean batch) {
+        PrefetchPlan.QueryType type = batch ? PrefetchPlan.QueryType.BATCH_LOAD : PrefetchPlan.QueryType.LOAD;
+        String queryStr = plan.getQuery(type, classname);
+        if (queryStr == null) {
+            String assoc = role.substring(role.lastIndexOf('.') + 1);
+            List<Path> augmentedPaths = new ArrayList<>();
+            augmentedPaths.add(new Path().addTraversal(assoc));
+            for (Path p : plan.getPaths()) {
+                augmentedPaths.add(p.prependTraversal(assoc));
+            }
+
+            log.debug("Prefetch paths: " + augmentedPaths);
+            queryStr = AutofetchLoadListener.buildQueryString(augmentedPaths, classname, batch);
+            plan.putQuery(type, classname, queryStr);
+        }
+        return queryStr;
+    }
+
+    /**
+     * Returns the key of the collection to initialize followed by the keys of
+     * other uninitialized collections of the same role in the session, up to
+     * batchSize.
+     */
+    private Serializable[] getCollectionBatch(CollectionEntry ce, SessionImplementor source, int batchSize) {
+        CollectionPersister cp = ce.getLoadedPersister();
+        Serializable key = ce.getLoadedKey();
+        if (batchSize <= 1) {
+            return new Serializable[]{key};
+        }
+        Serializable[] batch = source.getPersistenceContext().getBatchFetchQueue()
+                .getCollectionBatch(cp, key, batchSize);
+        // The requested key comes first, followed by the others in queue order
+        Serializable[] keys = new Serializable[batch.length];
+        keys[0] = key;
+        int numKeys = 1;
+        for (Serializable batchKey : batch) {
+            if (batchKey != null && !cp.getKeyType().isEqual(batchKey, key)) {
+                keys[numKeys++] = batchKey;
+            }
+        }
+        return numKeys == keys.length ? keys : Arrays.copyOf(keys, numKeys);
+    }
+
+    private void markElementsAsRoots(PersistentCollection collection, CollectionPersister cp, TraversalProfile tp,
+                                     List<Object> elements) {
+        boolean oldTracking = false;
+        if (collection instanceof Trackable) {
+            Trackable trackable = (Trackable) collection;
+            oldTracking = trackable.disableTracking();
+        }
+
+        Iterator elementsIter = collection.entries(cp);
+        while (elementsIter.hasNext()) {
+            Object element = elementsIter.next();
+            elements.add(element);
+            extentManager.markAsRoot(element, tp);
+        }
+
+        if (collection instanceof Trackable) {
+            Trackable trackable = (Trackable) collection;
+            if (oldTracking) {
+                trackable.enableTracking();
+            }
+        }
+    }
+
     /**
      * Try to initialize a collection from the cache
      */
@@ -14,17 +14,15 @@ package org.autofetch.hibernate;
 
 import org.hibernate.HibernateException;
 import org.hibernate.bytecode.spi.ReflectionOptimizer;
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
 import org.hibernate.mapping.PersistentClass;
-import org.hibernate.mapping.Property;
 import org.hibernate.tuple.PojoInstantiator;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
 /**
  * This code is based on the instantiator implementations in the Hibernate source code.
  * It instantiates entities using proxies so that their accesses may be tracked.
+ * Classes which were enhanced at build time are instantiated as is, and get an
+ * attribute interceptor which tracks their accesses instead.
  *
  * @author Ali Ibrahim <aibrahim@cs.utexas.edu>
  */
@@ -36,11 +34,14 @@ public class AutofetchInstantiator extends PojoInstantiator {
 
     private final String idMethodName;
 
-    private Set<org.autofetch.hibernate.Property> persistentProperties;
+    private final EntityMetadata metadata;
+
+    private final boolean enhanced;
 
     public AutofetchInstantiator(PersistentClass persistentClass,
                                  ReflectionOptimizer.InstantiationOptimizer optimizer,
-                                 ExtentManager extentManager) {
+                                 ExtentManager extentManager,
+                                 EntityMetadata metadata) {
         super(persistentClass, optimizer);
 
         this.extentManager = extentManager;
@@ -53,20 +54,23 @@ public class AutofetchInstantiator extends PojoInstantiator {
             this.idMethodName = null;
         }
 
-        this.persistentProperties = new HashSet<>();
-
-        @SuppressWarnings("unchecked")
-        Iterator<Property> propIter = persistentClass.getPropertyClosureIterator();
-        while (propIter.hasNext()) {
-            this.persistentProperties.add(new org.autofetch.hibernate.Property(propIter.next()));
-        }
+        this.metadata = metadata;
+        this.enhanced = PersistentAttributeInterceptable.class.isAssignableFrom(this.mappedClass);
     }
 
     @Override
     public Object instantiate() {
+        if (enhanced) {
+            // the enhanced class reports its own accesses to the interceptor
+            Object entity = super.instantiate();
+            ((PersistentAttributeInterceptable) entity).$$_hibernate_setInterceptor(
+                    new AutofetchAttributeInterceptor(entity, metadata, extentManager));
+            return entity;
+        }
+
         // instantiate our own proxy instead of using hibernate's class
         try {
-            return EntityProxyFactory.getProxyInstance(mappedClass, idMethodName, persistentProperties, extentManager);
+            return EntityProxyFactory.getProxyInstance(mappedClass, idMethodName, metadata, extentManager);
         } catch (Exception ie) {
             throw new HibernateException("Unable to instantiate class", ie);
         }
@@ -43,10 +43,16 @@ public class AutofetchIntegrator implements ServiceContributingIntegrator {
                           SessionFactoryServiceRegistry serviceRegistry) {
         doIntegrate(serviceRegistry);
 
+        // Only batch loadable entities and collections are queued for batch fetching
+        final int batchSize = serviceRegistry.getService(AutofetchService.class).getExtentManager().getBatchSize();
+
         final Iterator<PersistentClass> classMappings = configuration.getClassMappings();
         while (classMappings.hasNext()) {
             PersistentClass persistentClass = classMappings.next();
             persistentClass.addTuplizer(EntityMode.POJO, AutofetchTuplizer.class.getName());
+            if (batchSize > 1 && persistentClass.getBatchSize() <= 1) {
+                persistentClass.setBatchSize(batchSize);
+            }
 
             final Iterator propertyIterator = persistentClass.getPropertyIterator();
             while (propertyIterator.hasNext()) {
@@ -54,9 +60,16 @@ public class AutofetchIntegrator implements ServiceContributingIntegrator {
                 String name = property.getName();
                 if (property.getValue() instanceof org.hibernate.mapping.Collection) {
                     replaceCollection(property, persistentClass);
+                    org.hibernate.mapping.Collection collection = (org.hibernate.mapping.Collection) property.getValue();
+                    if (batchSize > 1 && collection.getBatchSize() <= 1) {
+                        collection.setBatchSize(batchSize);
+                    }
                 }
             }
         }
+
+        serviceRegistry.getService(AutofetchService.class).getExtentManager()
+                .registerEntityMetadata(sessionFactory, configuration.getClassMappings());
     }
 
     @Override
@@ -56,7 +56,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
                                      Method setIdentifierMethod,
                                      CompositeType componentIdType,
                                      SessionImplementor session,
-                                     Set<Property> persistentProperties,
+                                     EntityMetadata metadata,
                                      boolean classOverridesEquals) {
 
         super(entityName, persistentClass, id, getIdentifierMethod, setIdentifierMethod,
@@ -65,7 +65,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
         this.interfaces = interfaces;
 
         AutofetchService autofetchService = session.getFactory().getServiceRegistry().getService(AutofetchService.class);
-        this.entityTracker = new EntityTracker(persistentProperties, autofetchService.getExtentManager());
+        this.entityTracker = new EntityTracker(metadata, autofetchService.getExtentManager());
         this.entityTrackersSet = false;
     }
 
@@ -80,26 +80,22 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
             }
 
             if (result == INVOKE_IMPLEMENTATION) {
-                if (args.length == 0) {
-                    switch (thisMethod.getName()) {
-                        case "enableTracking":
-                            return handleEnableTracking();
-                        case "disableTracking":
-                            return handleDisableTracking();
-                        case "isAccessed":
-                            return entityTracker.isAccessed();
-                    }
-                } else if (args.length == 1) {
-                    if (thisMethod.getName().equals("addTracker") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+                switch (MethodAction.of(thisMethod)) {
+                    case ENABLE_TRACKING:
+                        return handleEnableTracking();
+                    case DISABLE_TRACKING:
+                        return handleDisableTracking();
+                    case IS_ACCESSED:
+                        return entityTracker.isAccessed();
+                    case ADD_TRACKER:
                         return handleAddTracked(args[0]);
-                    } else if (thisMethod.getName().equals("addTrackers") && thisMethod.getParameterTypes()[0].equals(Set.class)) {
+                    case ADD_TRACKERS:
                         return handleAddTrackers(args[0]);
-                    } else if (thisMethod.getName().equals("removeTracker") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+                    case REMOVE_TRACKER:
                         entityTracker.removeTracker((Statistics) args[0]);
                         return handleRemoveTracker(args);
-                    } else if (thisMethod.getName().equals("extendProfile") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+                    case EXTEND_PROFILE:
                         return extendProfile(args);
-                    }
                 }
 
                 final Object target = getImplementation();
@@ -129,9 +125,9 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
                 } catch (InvocationTargetException ite) {
                     throw ite.getTargetException();
                 } finally {
-                    if (!entityTrackersSet && target instanceof Trackable) {
+                    Trackable entity = entityTrackersSet ? null : Trackables.asTrackable(target);
+                    if (entity != null) {
                         entityTrackersSet = true;
-                        Trackable entity = (Trackable) target;
                         entity.addTrackers(entityTracker.getTrackers());
                         if (entityTracker.isTracking()) {
                             entity.enableTracking();
@@ -158,8 +154,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
         this.entityTracker.setTracking(false);
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof Trackable) {
-                Trackable entity = (Trackable) o;
+            Trackable entity = Trackables.asTrackable(o);
+            if (entity != null) {
                 entity.disableTracking();
             }
         }
@@ -173,8 +169,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
 
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof Trackable) {
-                Trackable entity = (Trackable) o;
+            Trackable entity = Trackables.asTrackable(o);
+            if (entity != null) {
                 entity.enableTracking();
             }
         }
@@ -185,8 +181,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
     private Object extendProfile(Object[] params) {
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof TrackableEntity) {
-                TrackableEntity entity = (TrackableEntity) o;
+            TrackableEntity entity = Trackables.asTrackableEntity(o);
+            if (entity != null) {
                 entity.extendProfile((Statistics) params[0]);
             }
         } else {
@@ -199,8 +195,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
     private Object handleRemoveTracker(Object[] params) {
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof Trackable) {
-                Trackable entity = (Trackable) o;
+            Trackable entity = Trackables.asTrackable(o);
+            if (entity != null) {
                 entity.removeTracker((Statistics) params[0]);
             }
         }
@@ -213,8 +209,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
         this.entityTracker.addTrackers(newTrackers);
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof Trackable) {
-                Trackable entity = (Trackable) o;
+            Trackable entity = Trackables.asTrackable(o);
+            if (entity != null) {
                 entity.addTrackers(newTrackers);
             }
         }
@@ -226,8 +222,8 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
         this.entityTracker.addTracker((Statistics) param);
         if (!isUninitialized()) {
             Object o = getImplementation();
-            if (o instanceof Trackable) {
-                Trackable entity = (Trackable) o;
+            Trackable entity = Trackables.asTrackable(o);
+            if (entity != null) {
                 entity.addTracker((Statistics) param);
             }
         }
@@ -246,7 +242,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
                 this.getIdentifierMethod,
                 this.setIdentifierMethod,
                 this.componentIdType,
-                this.entityTracker.getPersistentProperties()
+                entityTracker.getMetadata()
         );
     }
 
@@ -259,7 +255,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
             final CompositeType componentIdType,
             final Serializable id,
             final SessionImplementor session,
-            final Set<Property> persistentProperties) throws HibernateException {
+            final EntityMetadata metadata) throws HibernateException {
 
         // note: interface is assumed to already contain HibernateProxy.class
         try {
@@ -272,7 +268,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
                     setIdentifierMethod,
                     componentIdType,
                     session,
-                    persistentProperties,
+                    metadata,
                     ReflectHelper.overridesEquals(persistentClass)
             );
 
@@ -301,7 +297,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
             final CompositeType componentIdType,
             final Serializable id,
             final SessionImplementor session,
-            final Set<Property> persistentProperties) throws HibernateException {
+            final EntityMetadata metadata) throws HibernateException {
 
         // note: interfaces is assumed to already contain HibernateProxy.class
         final AutofetchLazyInitializer instance = new AutofetchLazyInitializer(
@@ -313,7 +309,7 @@ public class AutofetchLazyInitializer extends BasicLazyInitializer implements Me
                 setIdentifierMethod,
                 componentIdType,
                 session,
-                persistentProperties,
+                metadata,
                 ReflectHelper.overridesEquals(persistentClass)
         );
 
@@ -22,15 +22,20 @@ import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
 import org.hibernate.event.internal.DefaultLoadEventListener;
 import org.hibernate.event.spi.LoadEvent;
 import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.proxy.HibernateProxy;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class extends the hibernate default event listener to add prefetch
@@ -60,11 +65,44 @@ public class AutofetchLoadListener extends DefaultLoadEventListener {
             log.debug("Entity id: " + event.getEntityId());
         }
 
-        List<Path> prefetchPaths = extentManager.getPrefetchPaths(classname);
+        TraversalProfile tp = extentManager.getTraversalProfile(classname);
+        PrefetchPlan plan = extentManager.getPrefetchPlan(tp);
+        List<Path> prefetchPaths = plan.getPaths();
+        List<Path> subselectPaths = plan.getPaths(PrefetchMode.SUBSELECT);
+
+        // Hibernate would batch plain loads by itself according to the
+        // mapping, so those batches are loaded here as well
+        int batchSize = extentManager.getBatchSize();
+        if (prefetchPaths.isEmpty()) {
+            EntityMetadata metadata = extentManager.getEntityMetadata(classname);
+            batchSize = metadata == null ? 1 : metadata.getBatchSize();
+        }
+        Serializable[] ids = getEntityBatch(event, entityPersister, batchSize);
+        if (ids.length > 1) {
+            // Track every entity of the batch, since their proxies will
+            // find them in the session and not come back here. The query
+            // returns those proxies, so the entities are taken from the
+            // session instead.
+            getResults(getQueryString(plan, classname, true), ids, event.getSession());
+            Set<Object> loaded = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            PersistenceContext persistenceContext = event.getSession().getPersistenceContext();
+            for (Serializable id : ids) {
+                Object entity = persistenceContext.getEntity(event.getSession().generateEntityKey(id, entityPersister));
+                if (entity != null) {
+                    loaded.add(entity);
+                }
+            }
+            SubselectFetcher.fetch(event.getSession(), loaded, subselectPaths);
+            for (Object o : loaded) {
+                extentManager.markAsRoot(o, tp);
+            }
+            return persistenceContext.getEntity(entityKey);
+        }
 
         Object result;
         if (!prefetchPaths.isEmpty()) {
-            result = getResult(prefetchPaths, classname, event.getEntityId(), event.getLockMode(), event.getSession());
+            result = getResult(getQueryString(plan, classname, false), event.getEntityId(), event.getLockMode(),
+                    event.getSession());
             if (result instanceof HibernateProxy) {
                 HibernateProxy proxy = (HibernateProxy) result;
                 if (proxy.getHibernateLazyInitializer().isUninitialized()) {
@@ -76,36 +114,64 @@ public class AutofetchLoadListener extends DefaultLoadEventListener {
             result = super.loadFromDatasource(event, entityPersister, entityKey, loadType);
         }
 
-        extentManager.markAsRoot(result, classname);
+        SubselectFetcher.fetch(event.getSession(), Collections.singletonList(result), subselectPaths);
+        extentManager.markAsRoot(result, tp);
 
         return result;
     }
 
-    public static Object getResult(List<Path> prefetchPaths, String classname,
-                                   Serializable id, LockMode lm, Session sess) {
-        StringBuilder queryStr = new StringBuilder();
-        queryStr.append("from ").append(classname).append(" entity");
-        Map<Path, String> pathAliases = new HashMap<>();
-        int aliasCnt = 0;
-        pathAliases.put(new Path(), "entity");
+    /**
+     * Returns the id of the entity to load along with the ids of other
+     * uninitialized proxies of the same entity in the session, up to the
+     * batch size. Only batches plain loads, since locking other entities
+     * than the requested one would be unexpected.
+     */
+    private static Serializable[] getEntityBatch(LoadEvent event, EntityPersister persister, int batchSize) {
+        Serializable id = event.getEntityId();
+        LockMode lm = event.getLockMode();
+        if (batchSize <= 1 || !persister.isBatchLoadable()
+                || (lm != null && lm != LockMode.NONE && lm != LockMode.READ)) {
+            return new Serializable[]{id};
+        }
+        Serializable[] batch = event.getSession().getPersistenceContext().getBatchFetchQueue()
+                .getEntityBatch(persister, id, batchSize, persister.getEntityMode());
+        int numIds = 0;
+        for (Serializable batchId : batch) {
+            if (batchId != null) {
+                batch[numIds++] = batchId;
+            }
+        }
+        return numIds == batch.length ? batch : Arrays.copyOf(batch, numIds);
+    }
 
-        // Assumes prefetchPaths is ordered such larger paths appear after smaller ones.
-        // Also assumes all prefixes of a path are present except the empty prefix.
-        for (Path p : prefetchPaths) {
-            String oldAlias = pathAliases.get(p.removeLastTraversal());
-            String newAlias = "af" + (aliasCnt++);
-            String lastField = p.traversals().get(p.size() - 1);
-            pathAliases.put(p, newAlias);
-            queryStr.append(" left outer join fetch ");
-            queryStr.append(oldAlias).append(".").append(lastField).append(" ").append(newAlias);
+    /**
+     * Loads several entities by ids with a query built by
+     * {@link #buildQueryString(List, String, boolean)} for a batch.
+     *
+     * @return loaded entities, which may contain duplicates if collections
+     * are prefetched
+     */
+    public static List<?> getResults(String queryStr, Serializable[] ids, Session sess) {
+        if (log.isDebugEnabled()) {
+            log.debug("Autofetched batch query: " + queryStr + " for " + ids.length + " ids");
         }
-        queryStr.append(" where entity.id = :id");
 
+        Query q = sess.createQuery(queryStr);
+        q.setFlushMode(FlushMode.MANUAL);
+        q.setParameterList("ids", ids);
+        return q.list();
+    }
+
+    /**
+     * Loads an entity by id with a query built by
+     * {@link #buildQueryString(List, String, boolean)} for a single entity.
+     */
+    public static Object getResult(String queryStr, Serializable id, LockMode lm, Session sess) {
         if (log.isDebugEnabled()) {
             log.debug("Autofetched Query: " + queryStr);
         }
 
-        Query q = sess.createQuery(queryStr.toString());
+        Query q = sess.createQuery(queryStr);
         q.setLockMode("entity", lm);
         q.setFlushMode(FlushMode.MANUAL);
         q.setParameter("id", id);
@@ -118,4 +184,56 @@ public class AutofetchLoadListener extends DefaultLoadEventListener {
         }
         return o;
     }
+
+    /**
+     * Returns the query which loads an entity by id, or several entities by
+     * ids, along with the join paths of a prefetch plan. The query is cached
+     * on the plan, so it is only built once per plan. Hibernate caches the
+     * translation of each query string in its query plan cache, so reusing
+     * the string also skips parsing.
+     */
+    private static String getQueryString(PrefetchPlan plan, String classname, boolean batch) {
+        PrefetchPlan.QueryType type = batch ? PrefetchPlan.QueryType.BATCH_LOAD : PrefetchPlan.QueryType.LOAD;
+        String queryStr = plan.getQuery(type, classname);
+        if (queryStr == null) {
+            queryStr = buildQueryString(plan.getPaths(), classname, batch);
+            plan.putQuery(type, classname, queryStr);
+        }
+        return queryStr;
+    }
+
+    /**
+     * Builds the query which loads an entity by id, or several entities by
+     * ids, along with the given prefetch paths.
+     */
+    static String buildQueryString(List<Path> prefetchPaths, String classname, boolean batch) {
+        StringBuilder queryStr = new StringBuilder();
+        queryStr.append("from ").append(classname).append(" entity");
+        appendJoins(queryStr, "entity", prefetchPaths);
+        queryStr.append(batch ? " where entity.id in (:ids)" : " where entity.id = :id");
+        return queryStr.toString();
+    }
+
+    /**
+     * Appends a left outer join fetch clause for each prefetch path, with
+     * aliases af0, af1 and so on.
+     *
+     * @param rootAlias alias of the entity the paths start from
+     */
+    static void appendJoins(StringBuilder queryStr, String rootAlias, List<Path> prefetchPaths) {
+        Map<Path, String> pathAliases = new HashMap<>();
+        int aliasCnt = 0;
+        pathAliases.put(new Path(), rootAlias);
+
+        // Assumes prefetchPaths is ordered such larger paths appear after smaller ones.
+        // Also assumes all prefixes of a path are present except the empty prefix.
+        for (Path p : prefetchPaths) {
+            String oldAlias = pathAliases.get(p.removeLastTraversal());
+            String newAlias = "af" + (aliasCnt++);
+            String lastField = p.traversals().get(p.size() - 1);
+            pathAliases.put(p, newAlias);
+            queryStr.append(" left outer join fetch ");
+            queryStr.append(oldAlias).append(".").append(lastField).append(" ").append(newAlias);
+        }
+    }
 }
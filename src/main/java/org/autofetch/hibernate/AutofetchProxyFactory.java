@@ -14,8 +14,6 @@ package org.autofetch.hibernate;
 
 import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SessionImplementor;
-import org.hibernate.mapping.PersistentClass;
-import org.hibernate.mapping.Property;
 import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.proxy.ProxyFactory;
 import org.hibernate.proxy.pojo.javassist.JavassistLazyInitializer;
@@ -23,8 +21,6 @@ import org.hibernate.type.CompositeType;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -45,16 +41,10 @@ public class AutofetchProxyFactory implements ProxyFactory {
     private Class factory;
     private boolean overridesEquals;
 
-    private Set<org.autofetch.hibernate.Property> persistentProperties;
+    private final EntityMetadata metadata;
 
-    public AutofetchProxyFactory(PersistentClass pc) {
-        this.persistentProperties = new HashSet<>();
-
-        @SuppressWarnings("unchecked")
-        Iterator<Property> propIter = pc.getPropertyClosureIterator();
-        while (propIter.hasNext()) {
-            this.persistentProperties.add(new org.autofetch.hibernate.Property(propIter.next()));
-        }
+    public AutofetchProxyFactory(EntityMetadata metadata) {
+        this.metadata = metadata;
     }
 
     @Override
@@ -88,7 +78,7 @@ public class AutofetchProxyFactory implements ProxyFactory {
                 componentIdType,
                 id,
                 session,
-                persistentProperties
+                metadata
         );
     }
 }
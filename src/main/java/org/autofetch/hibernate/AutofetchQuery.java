@@ -0,0 +1,929 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wrapper around Hibernate HQL queries which performs prefetch. Queries which
+ * select a single root entity, such as "from Employee e where ...", get a
+ * left join fetch clause for each learned prefetch path, and their results
+ * are tracked as roots. Joins are only added if the root has an alias. Other
+ * queries run unchanged.
+ * <p>
+ * The call site of the query is the place where the wrapper is created.
+ * Since fetch joins are not allowed with iterate, and collection fetch joins
+ * are not allowed with scroll, and paginating a query with a joined
+ * collection would happen in memory, those run the query without joins.
+ * Scrolled results are tracked as roots row by row.
+ */
+public class AutofetchQuery implements Query {
+
+    private static final Log log = LogFactory.getLog(AutofetchQuery.class);
+
+    // Matches the select clause, if any, and the single root entity of a query
+    private static final Pattern ROOT_QUERY = Pattern.compile(
+            "^\\s*(?:select\\s+(?:distinct\\s+)?(\\w+)\\s+)?from\\s+([\\w.$]+)"
+                    + "(?:\\s+(?:as\\s+)?(?!(?:where|order|group|having|join|left|right|inner|full|cross)\\b)(\\w+))?",
+            Pattern.CASE_INSENSITIVE);
+
+    // Queries with their own joins, several roots or aliases which clash
+    // with ours are left alone
+    private static final Pattern UNSUPPORTED = Pattern.compile(
+            "\\bjoin\\b|\\bfetch\\b|\\baf\\d+\\b|^\\s*,", Pattern.CASE_INSENSITIVE);
+
+    private static final RootQuery NOT_A_ROOT_QUERY = new RootQuery(null, null, -1);
+
+    private final Session session;
+
+    private final ExtentManager extentManager;
+
+    private final String queryString;
+
+    // Traversal profile of the query and call site, null if the query does
+    // not select a root entity
+    private final TraversalProfile tp;
+
+    // The query which is run, followed by the recorder of the settings if it
+    // has prefetch joins, in which case the query as given may have to be run
+    // instead
+    private final Query[] queries;
+
+    private final QuerySettings settings;
+
+    private final boolean joinsCollection;
+
+    private boolean paginated;
+
+    private boolean transformed;
+
+    /**
+     * Creates an HQL query with prefetch.
+     *
+     * @param session     session to create the query in
+     * @param queryString HQL query
+     */
+    public AutofetchQuery(Session session, String queryString) {
+        this.session = session;
+        this.queryString = queryString;
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) session.getSessionFactory();
+        this.extentManager = factory.getServiceRegistry().getService(AutofetchService.class).getExtentManager();
+
+        RootQuery rootQuery = getRootQuery(queryString, factory, extentManager);
+        if (rootQuery == NOT_A_ROOT_QUERY) {
+            this.tp = null;
+            this.queries = new Query[]{session.createQuery(queryString)};
+            this.settings = null;
+            this.joinsCollection = false;
+            return;
+        }
+
+        this.tp = extentManager.getTraversalProfile(rootQuery.entityName);
+        PrefetchPlan plan = extentManager.getPrefetchPlan(tp);
+        List<Path> prefetchPaths = plan.getPaths();
+        if (prefetchPaths.isEmpty() || rootQuery.alias == null) {
+            this.queries = new Query[]{session.createQuery(queryString)};
+            this.settings = null;
+            this.joinsCollection = false;
+            return;
+        }
+
+        this.settings = new QuerySettings();
+        this.queries = new Query[]{session.createQuery(getPrefetchQueryString(plan, rootQuery)),
+                settings.getRecorder()};
+        this.joinsCollection = joinsCollection(tp, prefetchPaths);
+    }
+
+    /**
+     * Returns the query with the join paths of a prefetch plan added. The
+     * query is cached on the plan, so repeated queries from the same call
+     * site only build it once per plan.
+     */
+    private String getPrefetchQueryString(PrefetchPlan plan, RootQuery rootQuery) {
+        String prefetchQueryString = plan.getQuery(PrefetchPlan.QueryType.HQL, queryString);
+        if (prefetchQueryString == null) {
+            List<Path> prefetchPaths = plan.getPaths();
+            StringBuilder prefetchQuery = new StringBuilder(queryString.length() + 64 * prefetchPaths.size());
+            prefetchQuery.append(queryString, 0, rootQuery.end);
+            AutofetchLoadListener.appendJoins(prefetchQuery, rootQuery.alias, prefetchPaths);
+            prefetchQuery.append(queryString, rootQuery.end, queryString.length());
+            prefetchQueryString = prefetchQuery.toString();
+            plan.putQuery(PrefetchPlan.QueryType.HQL, queryString, prefetchQueryString);
+            if (log.isDebugEnabled()) {
+                log.debug("Autofetched HQL query: " + prefetchQueryString);
+            }
+        }
+        return prefetchQueryString;
+    }
+
+    /**
+     * @return the root entity and where to put prefetch joins, or
+     * NOT_A_ROOT_QUERY if the query cannot be prefetched
+     */
+    private static RootQuery getRootQuery(String queryString, SessionFactoryImplementor factory,
+            ExtentManager extentManager) {
+        RootQuery rootQuery = extentManager.getRootQuery(queryString);
+        if (rootQuery == null) {
+            rootQuery = parseRootQuery(queryString, factory);
+            extentManager.putRootQuery(queryString, rootQuery);
+        }
+        return rootQuery;
+    }
+
+    private static RootQuery parseRootQuery(String queryString, SessionFactoryImplementor factory) {
+        Matcher m = ROOT_QUERY.matcher(queryString);
+        if (!m.find() || UNSUPPORTED.matcher(queryString.substring(m.end())).find()) {
+            return NOT_A_ROOT_QUERY;
+        }
+        String selected = m.group(1);
+        String alias = m.group(3);
+        if (selected != null && !selected.equals(alias)) {
+            return NOT_A_ROOT_QUERY;
+        }
+        String entityName = factory.getImportedClassName(m.group(2));
+        if (factory.getClassMetadata(entityName) == null) {
+            return NOT_A_ROOT_QUERY;
+        }
+        return new RootQuery(entityName, alias, m.end());
+    }
+
+    private static boolean joinsCollection(TraversalProfile tp, List<Path> paths) {
+        for (Path p : paths) {
+            if (tp.crossesCollection(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the query as given, with the settings made so far
+     */
+    private Query getPlainQuery() {
+        if (settings == null) {
+            return queries[0];
+        }
+        Query query = session.createQuery(queryString);
+        settings.applyTo(query);
+        return query;
+    }
+
+    /**
+     * @return the query to list results with
+     */
+    private Query getListQuery() {
+        if (transformed || (paginated && joinsCollection)) {
+            return getPlainQuery();
+        }
+        return queries[0];
+    }
+
+    @Override
+    public List list() throws HibernateException {
+        Query query = getListQuery();
+        List results = query.list();
+        if (tp == null || transformed) {
+            return results;
+        }
+        if (query == queries[0] && joinsCollection) {
+            // Joined collections repeat their owner, which the query as given
+            // would have returned once
+            Set<Object> distinct = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            List<Object> distinctResults = new ArrayList<>(results.size());
+            for (Object o : results) {
+                if (distinct.add(o)) {
+                    distinctResults.add(o);
+                }
+            }
+            results = distinctResults;
+        }
+        SubselectFetcher.fetch(session, results, extentManager.getPrefetchPaths(tp, PrefetchMode.SUBSELECT));
+        for (Object o : results) {
+            extentManager.markAsRoot(o, tp);
+        }
+        return results;
+    }
+
+    @Override
+    public Object uniqueResult() throws HibernateException {
+        Object o = getListQuery().uniqueResult();
+        if (tp != null && !transformed) {
+            SubselectFetcher.fetch(session, Collections.singletonList(o),
+                    extentManager.getPrefetchPaths(tp, PrefetchMode.SUBSELECT));
+            extentManager.markAsRoot(o, tp);
+        }
+        return o;
+    }
+
+    @Override
+    public Iterator iterate() throws HibernateException {
+        return getPlainQuery().iterate();
+    }
+
+    @Override
+    public ScrollableResults scroll() throws HibernateException {
+        return trackScroll(getScrollQuery().scroll());
+    }
+
+    @Override
+    public ScrollableResults scroll(ScrollMode scrollMode) throws HibernateException {
+        return trackScroll(getScrollQuery().scroll(scrollMode));
+    }
+
+    /**
+     * @return the query to scroll results with
+     */
+    private Query getScrollQuery() {
+        if (transformed || joinsCollection) {
+            return getPlainQuery();
+        }
+        return queries[0];
+    }
+
+    private ScrollableResults trackScroll(ScrollableResults results) {
+        if (tp == null || transformed) {
+            return results;
+        }
+        return new AutofetchScrollableResults(results, extentManager, tp);
+    }
+
+    @Override
+    public int executeUpdate() throws HibernateException {
+        return getPlainQuery().executeUpdate();
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public Integer getMaxResults() {
+        return queries[0].getMaxResults();
+    }
+
+    @Override
+    public Query setMaxResults(int maxResults) {
+        for (Query q : queries) {
+            q.setMaxResults(maxResults);
+        }
+        paginated = true;
+        return this;
+    }
+
+    @Override
+    public Integer getFirstResult() {
+        return queries[0].getFirstResult();
+    }
+
+    @Override
+    public Query setFirstResult(int firstResult) {
+        for (Query q : queries) {
+            q.setFirstResult(firstResult);
+        }
+        paginated = true;
+        return this;
+    }
+
+    @Override
+    public Query setResultTransformer(ResultTransformer transformer) {
+        for (Query q : queries) {
+            q.setResultTransformer(transformer);
+        }
+        transformed = transformer != null;
+        return this;
+    }
+
+    @Override
+    public FlushMode getFlushMode() {
+        return queries[0].getFlushMode();
+    }
+
+    @Override
+    public CacheMode getCacheMode() {
+        return queries[0].getCacheMode();
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return queries[0].isCacheable();
+    }
+
+    @Override
+    public String getCacheRegion() {
+        return queries[0].getCacheRegion();
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return queries[0].getTimeout();
+    }
+
+    @Override
+    public Integer getFetchSize() {
+        return queries[0].getFetchSize();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return queries[0].isReadOnly();
+    }
+
+    @Override
+    public Type[] getReturnTypes() {
+        return queries[0].getReturnTypes();
+    }
+
+    @Override
+    public LockOptions getLockOptions() {
+        return queries[0].getLockOptions();
+    }
+
+    @Override
+    public String getComment() {
+        return queries[0].getComment();
+    }
+
+    @Override
+    public String[] getReturnAliases() {
+        return queries[0].getReturnAliases();
+    }
+
+    @Override
+    public String[] getNamedParameters() {
+        return queries[0].getNamedParameters();
+    }
+
+    @Override
+    public Query setFlushMode(FlushMode flushMode) {
+        for (Query q : queries) {
+            q.setFlushMode(flushMode);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCacheMode(CacheMode cacheMode) {
+        for (Query q : queries) {
+            q.setCacheMode(cacheMode);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCacheable(boolean cacheable) {
+        for (Query q : queries) {
+            q.setCacheable(cacheable);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCacheRegion(String cacheRegion) {
+        for (Query q : queries) {
+            q.setCacheRegion(cacheRegion);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setTimeout(int timeout) {
+        for (Query q : queries) {
+            q.setTimeout(timeout);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setFetchSize(int fetchSize) {
+        for (Query q : queries) {
+            q.setFetchSize(fetchSize);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setReadOnly(boolean readOnly) {
+        for (Query q : queries) {
+            q.setReadOnly(readOnly);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLockOptions(LockOptions lockOptions) {
+        for (Query q : queries) {
+            q.setLockOptions(lockOptions);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLockMode(String alias, LockMode lockMode) {
+        for (Query q : queries) {
+            q.setLockMode(alias, lockMode);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setComment(String comment) {
+        for (Query q : queries) {
+            q.setComment(comment);
+        }
+        return this;
+    }
+
+    @Override
+    public Query addQueryHint(String hint) {
+        for (Query q : queries) {
+            q.addQueryHint(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameter(int position, Object val, Type type) {
+        for (Query q : queries) {
+            q.setParameter(position, val, type);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameter(String name, Object val, Type type) {
+        for (Query q : queries) {
+            q.setParameter(name, val, type);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameter(int position, Object val) {
+        for (Query q : queries) {
+            q.setParameter(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameter(String name, Object val) {
+        for (Query q : queries) {
+            q.setParameter(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameters(Object[] values, Type[] types) {
+        for (Query q : queries) {
+            q.setParameters(values, types);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameterList(String name, Collection values, Type type) {
+        for (Query q : queries) {
+            q.setParameterList(name, values, type);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameterList(String name, Collection values) {
+        for (Query q : queries) {
+            q.setParameterList(name, values);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameterList(String name, Object[] values, Type type) {
+        for (Query q : queries) {
+            q.setParameterList(name, values, type);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setParameterList(String name, Object[] values) {
+        for (Query q : queries) {
+            q.setParameterList(name, values);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setProperties(Object bean) {
+        for (Query q : queries) {
+            q.setProperties(bean);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setProperties(Map bean) {
+        for (Query q : queries) {
+            q.setProperties(bean);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setString(int position, String val) {
+        for (Query q : queries) {
+            q.setString(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCharacter(int position, char val) {
+        for (Query q : queries) {
+            q.setCharacter(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBoolean(int position, boolean val) {
+        for (Query q : queries) {
+            q.setBoolean(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setByte(int position, byte val) {
+        for (Query q : queries) {
+            q.setByte(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setShort(int position, short val) {
+        for (Query q : queries) {
+            q.setShort(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setInteger(int position, int val) {
+        for (Query q : queries) {
+            q.setInteger(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLong(int position, long val) {
+        for (Query q : queries) {
+            q.setLong(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setFloat(int position, float val) {
+        for (Query q : queries) {
+            q.setFloat(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setDouble(int position, double val) {
+        for (Query q : queries) {
+            q.setDouble(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBinary(int position, byte[] val) {
+        for (Query q : queries) {
+            q.setBinary(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setText(int position, String val) {
+        for (Query q : queries) {
+            q.setText(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setSerializable(int position, Serializable val) {
+        for (Query q : queries) {
+            q.setSerializable(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLocale(int position, Locale val) {
+        for (Query q : queries) {
+            q.setLocale(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBigDecimal(int position, BigDecimal val) {
+        for (Query q : queries) {
+            q.setBigDecimal(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBigInteger(int position, BigInteger val) {
+        for (Query q : queries) {
+            q.setBigInteger(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setDate(int position, Date val) {
+        for (Query q : queries) {
+            q.setDate(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setTime(int position, Date val) {
+        for (Query q : queries) {
+            q.setTime(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setTimestamp(int position, Date val) {
+        for (Query q : queries) {
+            q.setTimestamp(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCalendar(int position, Calendar val) {
+        for (Query q : queries) {
+            q.setCalendar(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCalendarDate(int position, Calendar val) {
+        for (Query q : queries) {
+            q.setCalendarDate(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setString(String name, String val) {
+        for (Query q : queries) {
+            q.setString(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCharacter(String name, char val) {
+        for (Query q : queries) {
+            q.setCharacter(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBoolean(String name, boolean val) {
+        for (Query q : queries) {
+            q.setBoolean(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setByte(String name, byte val) {
+        for (Query q : queries) {
+            q.setByte(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setShort(String name, short val) {
+        for (Query q : queries) {
+            q.setShort(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setInteger(String name, int val) {
+        for (Query q : queries) {
+            q.setInteger(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLong(String name, long val) {
+        for (Query q : queries) {
+            q.setLong(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setFloat(String name, float val) {
+        for (Query q : queries) {
+            q.setFloat(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setDouble(String name, double val) {
+        for (Query q : queries) {
+            q.setDouble(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBinary(String name, byte[] val) {
+        for (Query q : queries) {
+            q.setBinary(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setText(String name, String val) {
+        for (Query q : queries) {
+            q.setText(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setSerializable(String name, Serializable val) {
+        for (Query q : queries) {
+            q.setSerializable(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setLocale(String name, Locale val) {
+        for (Query q : queries) {
+            q.setLocale(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBigDecimal(String name, BigDecimal val) {
+        for (Query q : queries) {
+            q.setBigDecimal(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setBigInteger(String name, BigInteger val) {
+        for (Query q : queries) {
+            q.setBigInteger(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setDate(String name, Date val) {
+        for (Query q : queries) {
+            q.setDate(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setTime(String name, Date val) {
+        for (Query q : queries) {
+            q.setTime(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setTimestamp(String name, Date val) {
+        for (Query q : queries) {
+            q.setTimestamp(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCalendar(String name, Calendar val) {
+        for (Query q : queries) {
+            q.setCalendar(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setCalendarDate(String name, Calendar val) {
+        for (Query q : queries) {
+            q.setCalendarDate(name, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setEntity(int position, Object val) {
+        for (Query q : queries) {
+            q.setEntity(position, val);
+        }
+        return this;
+    }
+
+    @Override
+    public Query setEntity(String name, Object val) {
+        for (Query q : queries) {
+            q.setEntity(name, val);
+        }
+        return this;
+    }
+
+
+    /**
+     * Root entity of a query and where its declaration ends.
+     */
+    static final class RootQuery {
+
+        private final String entityName;
+
+        // Null if the root has no alias, in which case properties may be
+        // referenced unqualified and joins would make them ambiguous
+        private final String alias;
+
+        private final int end;
+
+        RootQuery(String entityName, String alias, int end) {
+            this.entityName = entityName;
+            this.alias = alias;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.type.Type;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Wrapper around scrollable results which tracks the root entity of each row
+ * as it is scrolled to. Rows are marked incrementally, and no reference is
+ * kept to rows already scrolled past, so streaming a large result does not
+ * grow the memory of the wrapper.
+ * <p>
+ * A row is marked as root at most once, unless the results cannot tell the
+ * row number, so scrolling back and forth does not count the same root
+ * entity twice.
+ */
+public class AutofetchScrollableResults implements ScrollableResults {
+
+    private final ScrollableResults delegate;
+
+    private final ExtentManager extentManager;
+
+    private final TraversalProfile tp;
+
+    // Number of rows from the start of the results which have been marked
+    private int markedRows;
+
+    /**
+     * @param delegate      results to wrap
+     * @param extentManager extent manager to mark roots with
+     * @param tp            traversal profile of the query and call site
+     */
+    public AutofetchScrollableResults(ScrollableResults delegate, ExtentManager extentManager,
+            TraversalProfile tp) {
+        this.delegate = delegate;
+        this.extentManager = extentManager;
+        this.tp = tp;
+    }
+
+    /**
+     * Marks the root entity of the current row, if the results are
+     * positioned on a row which has not been marked yet.
+     *
+     * @param positioned whether the results are positioned on a row
+     * @return positioned
+     */
+    private boolean markCurrentRow(boolean positioned) {
+        if (!positioned) {
+            return false;
+        }
+        int rowNumber = delegate.getRowNumber();
+        if (rowNumber < 0) {
+            extentManager.markAsRoot(delegate.get(0), tp);
+        } else if (rowNumber >= markedRows) {
+            // Rows skipped by scrolling forward were never looked at
+            markedRows = rowNumber + 1;
+            extentManager.markAsRoot(delegate.get(0), tp);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean next() {
+        return markCurrentRow(delegate.next());
+    }
+
+    @Override
+    public boolean previous() {
+        return markCurrentRow(delegate.previous());
+    }
+
+    @Override
+    public boolean scroll(int positions) {
+        return markCurrentRow(delegate.scroll(positions));
+    }
+
+    @Override
+    public boolean last() {
+        return markCurrentRow(delegate.last());
+    }
+
+    @Override
+    public boolean first() {
+        return markCurrentRow(delegate.first());
+    }
+
+    @Override
+    public void beforeFirst() {
+        delegate.beforeFirst();
+    }
+
+    @Override
+    public void afterLast() {
+        delegate.afterLast();
+    }
+
+    @Override
+    public boolean isFirst() {
+        return delegate.isFirst();
+    }
+
+    @Override
+    public boolean isLast() {
+        return delegate.isLast();
+    }
+
+    @Override
+    public int getRowNumber() {
+        return delegate.getRowNumber();
+    }
+
+    @Override
+    public boolean setRowNumber(int rowNumber) {
+        return markCurrentRow(delegate.setRowNumber(rowNumber));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public Object[] get() {
+        return delegate.get();
+    }
+
+    @Override
+    public Object get(int col) {
+        return delegate.get(col);
+    }
+
+    @Override
+    public Type getType(int i) {
+        return delegate.getType(i);
+    }
+
+    @Override
+    public Integer getInteger(int col) {
+        return delegate.getInteger(col);
+    }
+
+    @Override
+    public Long getLong(int col) {
+        return delegate.getLong(col);
+    }
+
+    @Override
+    public Float getFloat(int col) {
+        return delegate.getFloat(col);
+    }
+
+    @Override
+    public Boolean getBoolean(int col) {
+        return delegate.getBoolean(col);
+    }
+
+    @Override
+    public Double getDouble(int col) {
+        return delegate.getDouble(col);
+    }
+
+    @Override
+    public Short getShort(int col) {
+        return delegate.getShort(col);
+    }
+
+    @Override
+    public Byte getByte(int col) {
+        return delegate.getByte(col);
+    }
+
+    @Override
+    public Character getCharacter(int col) {
+        return delegate.getCharacter(col);
+    }
+
+    @Override
+    public byte[] getBinary(int col) {
+        return delegate.getBinary(col);
+    }
+
+    @Override
+    public String getText(int col) {
+        return delegate.getText(col);
+    }
+
+    @Override
+    public Blob getBlob(int col) {
+        return delegate.getBlob(col);
+    }
+
+    @Override
+    public Clob getClob(int col) {
+        return delegate.getClob(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return delegate.getString(col);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int col) {
+        return delegate.getBigDecimal(col);
+    }
+
+    @Override
+    public BigInteger getBigInteger(int col) {
+        return delegate.getBigInteger(col);
+    }
+
+    @Override
+    public Date getDate(int col) {
+        return delegate.getDate(col);
+    }
+
+    @Override
+    public Locale getLocale(int col) {
+        return delegate.getLocale(col);
+    }
+
+    @Override
+    public Calendar getCalendar(int col) {
+        return delegate.getCalendar(col);
+    }
+
+    @Override
+    public TimeZone getTimeZone(int col) {
+        return delegate.getTimeZone(col);
+    }
+}
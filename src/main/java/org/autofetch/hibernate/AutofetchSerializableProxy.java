@@ -20,7 +20,6 @@ import org.hibernate.type.CompositeType;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.util.Set;
 
 public final class AutofetchSerializableProxy extends AbstractSerializableProxy {
 
@@ -32,7 +31,7 @@ public final class AutofetchSerializableProxy extends AbstractSerializableProxy
     private String setIdentifierMethodName;
     private Class[] setIdentifierMethodParams;
     private CompositeType componentIdType;
-    private Set<Property> persistentProperties;
+    private EntityMetadata metadata;
 
     public AutofetchSerializableProxy() {
     }
@@ -46,7 +45,7 @@ public final class AutofetchSerializableProxy extends AbstractSerializableProxy
             final Method getIdentifierMethod,
             final Method setIdentifierMethod,
             final CompositeType componentIdType,
-            final Set<Property> persistentProperties) {
+            final EntityMetadata metadata) {
 
         super(entityName, id, readOnly);
 
@@ -65,7 +64,7 @@ public final class AutofetchSerializableProxy extends AbstractSerializableProxy
         }
 
         this.componentIdType = componentIdType;
-        this.persistentProperties = persistentProperties;
+        this.metadata = metadata;
     }
 
     private Object readResolve() {
@@ -81,7 +80,7 @@ public final class AutofetchSerializableProxy extends AbstractSerializableProxy
                     componentIdType,
                     getId(),
                     null,
-                    persistentProperties
+                    metadata
             );
             setReadOnlyBeforeAttachedToSession((JavassistLazyInitializer) proxy.getHibernateLazyInitializer());
             return proxy;
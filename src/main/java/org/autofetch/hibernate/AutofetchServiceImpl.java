@@ -1,15 +1,117 @@
 package org.autofetch.hibernate;
 
-final class AutofetchServiceImpl implements AutofetchService {
+import org.hibernate.internal.util.config.ConfigurationException;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.spi.Stoppable;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+final class AutofetchServiceImpl implements AutofetchService, Stoppable {
 
     private final ExtentManager extentManager;
 
-    AutofetchServiceImpl() {
+    private final transient ProfileSnapshotStore snapshotStore;
+
+    private final transient ScheduledExecutorService snapshotScheduler;
+
+    AutofetchServiceImpl(Map configurationValues) {
         this.extentManager = new ExtentManager();
+        extentManager.setMaxProfiles(getInt(AutofetchSettings.MAX_PROFILES, configurationValues,
+                ExtentManager.DEFAULT_MAX_PROFILES, 0));
+        extentManager.setBatchSize(getInt(AutofetchSettings.BATCH_SIZE, configurationValues,
+                ExtentManager.DEFAULT_BATCH_SIZE, 1));
+        String sampleRate = ConfigurationHelper.getString(AutofetchSettings.PROFILE_SAMPLE_RATE, configurationValues);
+        if (sampleRate != null && !sampleRate.isEmpty()) {
+            try {
+                extentManager.setProfileSampleRate(Double.parseDouble(sampleRate.trim()));
+            } catch (IllegalArgumentException e) {
+                throw invalidSetting(AutofetchSettings.PROFILE_SAMPLE_RATE, sampleRate,
+                        "a number between 0 and 1", e);
+            }
+        }
+        extentManager.setProfileSampleWarmup(getInt(AutofetchSettings.PROFILE_SAMPLE_WARMUP, configurationValues,
+                ExtentManager.DEFAULT_PROFILE_SAMPLE_WARMUP, 0));
+        extentManager.setStatisticsHalfLife(TimeUnit.SECONDS.toMillis(
+                getInt(AutofetchSettings.STATISTICS_HALF_LIFE, configurationValues, 0, 0)));
+
+        String snapshotFile = ConfigurationHelper.getString(AutofetchSettings.SNAPSHOT_FILE, configurationValues);
+        if (snapshotFile == null || snapshotFile.isEmpty()) {
+            this.snapshotStore = null;
+            this.snapshotScheduler = null;
+            return;
+        }
+        this.snapshotStore = new ProfileSnapshotStore(new File(snapshotFile), extentManager);
+        snapshotStore.load();
+
+        int interval = getInt(AutofetchSettings.SNAPSHOT_INTERVAL, configurationValues, 0, 0);
+        if (interval > 0) {
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "autofetch-snapshot");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    snapshotStore.save();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        } else {
+            this.snapshotScheduler = null;
+        }
+    }
+
+    /**
+     * @return value of an integer setting, or the default if it is not set
+     * @throws ConfigurationException if the value is not an integer of at
+     *                                least min
+     */
+    private static int getInt(String name, Map configurationValues, int defaultValue, int min) {
+        String value = ConfigurationHelper.getString(name, configurationValues);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalidSetting(name, value, "an integer of at least " + min, e);
+        }
+        if (parsed < min) {
+            throw invalidSetting(name, value, "an integer of at least " + min, null);
+        }
+        return parsed;
+    }
+
+    private static ConfigurationException invalidSetting(String name, String value, String expected,
+            IllegalArgumentException cause) {
+        return new ConfigurationException(
+                "Invalid value for " + name + ": '" + value + "', expected " + expected, cause);
     }
 
     @Override
     public ExtentManager getExtentManager() {
         return extentManager;
     }
+
+    /**
+     * Saves the traversal profiles if a snapshot file is configured.
+     */
+    @Override
+    public void stop() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (snapshotStore != null) {
+            snapshotStore.save();
+        }
+    }
 }
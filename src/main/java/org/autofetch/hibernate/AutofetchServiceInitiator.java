@@ -11,7 +11,7 @@ final class AutofetchServiceInitiator implements StandardServiceInitiator<Autofe
 
     @Override
     public AutofetchService initiateService(Map configurationValues, ServiceRegistryImplementor registry) {
-        return new AutofetchServiceImpl();
+        return new AutofetchServiceImpl(configurationValues);
     }
 
     @Override
@@ -0,0 +1,77 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Names of the Hibernate configuration properties understood by autofetch.
+ */
+public interface AutofetchSettings {
+
+    /**
+     * Maximum number of traversal profiles, one per query and call site, kept
+     * by the extent manager. When there are more, the least recently used ones
+     * are evicted. Zero means unbounded. Defaults to
+     * {@value ExtentManager#DEFAULT_MAX_PROFILES}.
+     */
+    String MAX_PROFILES = "autofetch.max_profiles";
+
+    /**
+     * File to which learned traversal profiles are saved when the session
+     * factory is closed, and from which they are restored when it is built.
+     * Not set by default, which disables saving profiles.
+     */
+    String SNAPSHOT_FILE = "autofetch.snapshot.file";
+
+    /**
+     * Seconds between periodic saves of the traversal profiles, in addition
+     * to the save on shutdown. Zero, the default, disables periodic
+     * saves. Only used if {@link #SNAPSHOT_FILE} is set.
+     */
+    String SNAPSHOT_INTERVAL = "autofetch.snapshot.interval";
+
+    /**
+     * Maximum number of entities or collections which are loaded by one
+     * prefetch query. When an uninitialized proxy or collection is loaded with
+     * prefetching, other uninitialized proxies of the same entity, or
+     * collections of the same role, in the session are loaded along with it.
+     * Entities and collections without a batch size of their own get this
+     * batch size in Hibernate too. Defaults to 1, which disables batching.
+     */
+    String BATCH_SIZE = "autofetch.batch_size";
+
+    /**
+     * Fraction of the root objects loaded from a call site whose traversals
+     * are profiled once its statistics are stable; the others are only
+     * prefetched for. All roots are profiled while the statistics are young
+     * or after they changed the prefetch plan, then the fraction falls toward
+     * this rate. Defaults to 1, which profiles every root.
+     */
+    String PROFILE_SAMPLE_RATE = "autofetch.profile_sample.rate";
+
+    /**
+     * Number of root objects loaded from a call site which are all profiled
+     * after its statistics changed, before sampling starts. Only used if
+     * {@link #PROFILE_SAMPLE_RATE} is below 1. Defaults to
+     * {@value ExtentManager#DEFAULT_PROFILE_SAMPLE_WARMUP}.
+     */
+    String PROFILE_SAMPLE_WARMUP = "autofetch.profile_sample.warmup";
+
+    /**
+     * Half-life in seconds of the traversal statistics. Traversals count
+     * half as much toward prefetch decisions for every half-life that passed
+     * since, so that the decisions follow changes in how the application
+     * uses the objects it loads. Zero, the default, weighs all
+     * traversals alike.
+     */
+    String STATISTICS_HALF_LIFE = "autofetch.statistics.half_life";
+}
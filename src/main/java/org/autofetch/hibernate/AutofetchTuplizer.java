@@ -57,13 +57,16 @@ public class AutofetchTuplizer extends PojoEntityTuplizer {
         return new AutofetchInstantiator(
                 pc,
                 optimizer != null ? optimizer.getInstantiationOptimizer() : null,
-                extentManager
+                extentManager,
+                extentManager.getEntityMetadata(getFactory(), pc)
         );
     }
 
     @Override
     protected ProxyFactory buildProxyFactoryInternal(PersistentClass pc, Getter idGetter, Setter idSetter) {
-        return new AutofetchProxyFactory(pc);
+        final ExtentManager extentManager =
+                getFactory().getServiceRegistry().getService(AutofetchService.class).getExtentManager();
+        return new AutofetchProxyFactory(extentManager.getEntityMetadata(getFactory(), pc));
     }
 
     @Override
@@ -239,8 +242,8 @@ public class AutofetchTuplizer extends PojoEntityTuplizer {
     }
 
     private boolean disableTracking(Object o) {
-        if (o instanceof Trackable) {
-            Trackable entity = (Trackable) o;
+        Trackable entity = Trackables.asTrackable(o);
+        if (entity != null) {
             return entity.disableTracking();
         } else {
             return false;
@@ -248,8 +251,8 @@ public class AutofetchTuplizer extends PojoEntityTuplizer {
     }
 
     private boolean enableTracking(Object o) {
-        if (o instanceof Trackable) {
-            Trackable entity = (Trackable) o;
+        Trackable entity = Trackables.asTrackable(o);
+        if (entity != null) {
             return entity.enableTracking();
         } else {
             return false;
@@ -0,0 +1,31 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.Serializable;
+
+/**
+ * Identifies the call site of a query or entity load. Traversal profiles are
+ * kept per query and call site, so this is invoked for every load and should
+ * be cheap.
+ *
+ * @see ExtentManager#setCallSiteEngine(CallSiteEngine)
+ */
+public interface CallSiteEngine extends Serializable {
+
+    /**
+     * @return program state of the current thread, ignoring hibernate and
+     * autofetch frames
+     */
+    ProgramStack currentProgramStack();
+}
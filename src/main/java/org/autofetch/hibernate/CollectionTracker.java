@@ -16,12 +16,27 @@ package org.autofetch.hibernate;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class CollectionTracker implements Serializable {
 
-    private final Set<Statistics> trackers = new HashSet<Statistics>();
+    /**
+     * Maximum number of elements of a collection whose traversals are
+     * tracked. Extending every element of a large collection would make its
+     * first access as expensive as iterating it, even when the application
+     * only asks for its size, so the statistics of the elements are instead
+     * gathered from a systematic sample: every stride-th element, starting
+     * at a random offset within the first stride. The sample spreads over
+     * the whole collection, so elements near its head, which an ordered
+     * collection may sort by some property, are not favoured.
+     */
+    static final int MAX_SAMPLED_ELEMENTS = 64;
+
+    private final TrackerSet trackers = new TrackerSet();
 
     private boolean accessed = false;
 
@@ -34,14 +49,37 @@ public class CollectionTracker implements Serializable {
                 stats.loadedAssociation();
             }
 
-            for (Object elem : collection) {
-                if (elem instanceof TrackableEntity) {
-                    TrackableEntity entity = (TrackableEntity) elem;
-                    for (Statistics stats : trackers) {
-                        entity.extendProfile(stats);
+            int size = collection.size();
+            int stride = Math.max((size + MAX_SAMPLED_ELEMENTS - 1) / MAX_SAMPLED_ELEMENTS, 1);
+            int next = stride > 1 ? ThreadLocalRandom.current().nextInt(stride) : 0;
+            if (collection instanceof List && collection instanceof RandomAccess) {
+                List<?> list = (List<?>) collection;
+                for (int i = next; i < size; i += stride) {
+                    extendProfiles(list.get(i));
+                }
+            } else {
+                Iterator<?> it = collection.iterator();
+                for (int i = 0; next < size && it.hasNext(); i++) {
+                    Object elem = it.next();
+                    if (i == next) {
+                        extendProfiles(elem);
+                        next += stride;
                     }
                 }
             }
+
+            for (Statistics stats : trackers) {
+                stats.loadedElements(size);
+            }
+        }
+    }
+
+    private void extendProfiles(Object elem) {
+        TrackableEntity entity = Trackables.asTrackableEntity(elem);
+        if (entity != null) {
+            for (Statistics stats : trackers) {
+                entity.extendProfile(stats);
+            }
         }
     }
 
@@ -0,0 +1,112 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Chooses the way of fetching an association which transfers the fewest
+ * cells, i.e. rows times columns, per root object, with every query counted
+ * as a fixed number of cells for its round trip.
+ * <p>
+ * Joining a to-one association widens every row of the query; joining a
+ * collection also multiplies the rows by its average size. Loading an
+ * association lazily costs a round trip and its rows whenever it is
+ * accessed, of which batch loading, if there is a batch size, shares the
+ * round trip among a batch. A subselect always loads the collection, but
+ * shares its round trip among all root objects of the query. Collection
+ * sizes and entity widths are taken from the statistics, with defaults until
+ * they are known.
+ */
+public class CostBasedPrefetchStrategy implements PrefetchStrategy {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_ROUND_TRIP_COST = 100;
+
+    public static final double DEFAULT_ROOTS_PER_QUERY = 10;
+
+    // Assumed until tracked instances tell otherwise
+    private static final double DEFAULT_COLLECTION_SIZE = 10;
+
+    private static final int DEFAULT_WIDTH = 8;
+
+    private final double roundTripCost;
+
+    private final double rootsPerQuery;
+
+    public CostBasedPrefetchStrategy() {
+        this(DEFAULT_ROUND_TRIP_COST, DEFAULT_ROOTS_PER_QUERY);
+    }
+
+    /**
+     * @param roundTripCost cost of a query, in cells
+     * @param rootsPerQuery expected number of root objects returned by a
+     *                      query, over which a subselect is shared
+     */
+    public CostBasedPrefetchStrategy(double roundTripCost, double rootsPerQuery) {
+        if (roundTripCost < 0 || rootsPerQuery < 1) {
+            throw new IllegalArgumentException("Invalid costs: " + roundTripCost + ", " + rootsPerQuery);
+        }
+        this.roundTripCost = roundTripCost;
+        this.rootsPerQuery = rootsPerQuery;
+    }
+
+    @Override
+    public Decision decide(Association assoc) {
+        double size = 1;
+        if (assoc.isCollection()) {
+            size = assoc.getStatistics().averageSize();
+            if (Double.isNaN(size)) {
+                size = DEFAULT_COLLECTION_SIZE;
+            }
+        }
+        int width = assoc.getWidth() > 0 ? assoc.getWidth() : DEFAULT_WIDTH;
+        int rowWidth = assoc.getRowWidth() > 0 ? assoc.getRowWidth() : DEFAULT_WIDTH;
+        double cells = size * width;
+
+        // Costs which do not depend on the probability of the access
+        PrefetchMode eager = null;
+        double eagerCost = Double.POSITIVE_INFINITY;
+        if (!assoc.isCollection()) {
+            eager = PrefetchMode.JOIN;
+            eagerCost = assoc.getRows() * width;
+        } else {
+            if (!assoc.isCollectionJoined()) {
+                // Left joins keep a row for empty collections
+                double multiplier = Math.max(size, 1);
+                eager = PrefetchMode.JOIN;
+                eagerCost = assoc.getRows() * (multiplier * (rowWidth + width) - rowWidth);
+            }
+            double subselectCost = roundTripCost / rootsPerQuery + cells;
+            if (subselectCost < eagerCost) {
+                eager = PrefetchMode.SUBSELECT;
+                eagerCost = subselectCost;
+            }
+        }
+
+        // Costs which grow linearly with the probability of the access. Lazy
+        // loads are batched by the load listeners whenever there is a batch
+        // size, so they share the round trip.
+        PrefetchMode lazy = PrefetchMode.NONE;
+        double lazyCostPerAccess = roundTripCost / Math.max(assoc.getBatchSize(), 1) + cells;
+
+        if (eager == null || lazyCostPerAccess <= 0) {
+            return new Decision(lazy, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+        double breakEven = eagerCost / lazyCostPerAccess;
+        double probability = assoc.getProbability();
+        if (probability > breakEven) {
+            return new Decision(eager, breakEven, Double.POSITIVE_INFINITY);
+        }
+        return new Decision(lazy, Double.NEGATIVE_INFINITY, breakEven);
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.mapping.Component;
+import org.hibernate.mapping.PersistentClass;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable per-class property metadata used to extend traversal profiles.
+ * Only the properties which can be traversed are kept: associations to
+ * entities and collections, including those nested in components. Scalar
+ * properties only count towards the width of the entity.
+ * <p>
+ * There is one instance per entity name and extent manager, registered when
+ * autofetch is integrated into a session factory and shared by all trackers,
+ * proxies and instantiators of the entity. Subclasses share the properties
+ * inherited from their superclass. Serialized metadata only consists of the
+ * session factory and the entity name, and resolves to the instance
+ * registered with the extent manager of that factory.
+ */
+public class EntityMetadata implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Property[] NO_PROPERTIES = new Property[0];
+
+    // Resolves serialized metadata, see SerialForm
+    private final transient SessionFactoryImplementor sessionFactory;
+
+    private final String entityName;
+
+    private final int width;
+
+    // Entities Hibernate loads at once by the mapping
+    private final int batchSize;
+
+    private final Property[] associations;
+
+    private final Map<String, Property> associationsByName;
+
+    /**
+     * Classifies the properties of a persistent class, including inherited
+     * ones.
+     *
+     * @param sessionFactory  session factory the class is mapped by
+     * @param persistentClass mapping of the persistent class
+     * @param superMetadata   metadata of the superclass, or null for a root class
+     */
+    private EntityMetadata(SessionFactoryImplementor sessionFactory, PersistentClass persistentClass,
+            EntityMetadata superMetadata) {
+        this.sessionFactory = sessionFactory;
+        this.entityName = persistentClass.getEntityName();
+        int w = superMetadata == null ? 1 : superMetadata.width; // Identifier
+        List<Property> assocs = superMetadata == null
+                ? new ArrayList<Property>()
+                : new ArrayList<>(Arrays.asList(superMetadata.associations));
+        @SuppressWarnings("unchecked")
+        Iterator<org.hibernate.mapping.Property> propIter = persistentClass.getPropertyIterator();
+        while (propIter.hasNext()) {
+            org.hibernate.mapping.Property prop = propIter.next();
+            if (!prop.getType().isCollectionType()) {
+                w++;
+            }
+            addAssociations(assocs, prop, persistentClass.getMappedClass(), null);
+        }
+        this.width = w;
+        int batch = persistentClass.getBatchSize();
+        this.batchSize = Math.max(batch == -1 ? sessionFactory.getSettings().getDefaultBatchFetchSize() : batch, 1);
+        this.associations = assocs.toArray(NO_PROPERTIES);
+        this.associationsByName = new HashMap<>();
+        for (Property p : associations) {
+            associationsByName.put(p.getName(), p);
+        }
+    }
+
+    /**
+     * Builds the metadata of the entities of a session factory.
+     *
+     * @param sessionFactory session factory the classes are mapped by
+     * @param classMappings  mappings of the persistent classes
+     * @return metadata by entity name
+     */
+    static Map<String, EntityMetadata> build(SessionFactoryImplementor sessionFactory,
+            Iterator<PersistentClass> classMappings) {
+        Map<String, EntityMetadata> built = new HashMap<>();
+        while (classMappings.hasNext()) {
+            build(sessionFactory, classMappings.next(), built);
+        }
+        return built;
+    }
+
+    /**
+     * Builds the metadata of one entity of a session factory.
+     *
+     * @param sessionFactory  session factory the class is mapped by
+     * @param persistentClass mapping of the persistent class
+     * @return metadata of the entity
+     */
+    static EntityMetadata build(SessionFactoryImplementor sessionFactory, PersistentClass persistentClass) {
+        return build(sessionFactory, persistentClass, new HashMap<String, EntityMetadata>());
+    }
+
+    private static EntityMetadata build(SessionFactoryImplementor sessionFactory, PersistentClass persistentClass,
+            Map<String, EntityMetadata> built) {
+        EntityMetadata metadata = built.get(persistentClass.getEntityName());
+        if (metadata == null) {
+            PersistentClass superclass = persistentClass.getSuperclass();
+            metadata = new EntityMetadata(sessionFactory, persistentClass,
+                    superclass == null ? null : build(sessionFactory, superclass, built));
+            built.put(persistentClass.getEntityName(), metadata);
+        }
+        return metadata;
+    }
+
+    private static void addAssociations(List<Property> assocs, org.hibernate.mapping.Property prop,
+            Class<?> ownerClass, Property component) {
+        if (prop.isBackRef()) {
+            return;
+        }
+        if (prop.getType().isAssociationType()) {
+            assocs.add(new Property(prop, ownerClass, component));
+        } else if (prop.getType().isComponentType() && prop.getValue() instanceof Component) {
+            Component value = (Component) prop.getValue();
+            Class<?> componentClass;
+            try {
+                componentClass = value.getComponentClass();
+            } catch (MappingException e) {
+                return; // Dynamic component, nothing to traverse
+            }
+            Property property = new Property(prop, ownerClass, component);
+            @SuppressWarnings("unchecked")
+            Iterator<org.hibernate.mapping.Property> subIter = value.getPropertyIterator();
+            while (subIter.hasNext()) {
+                addAssociations(assocs, subIter.next(), componentClass, property);
+            }
+        }
+    }
+
+    /**
+     * @return name of the entity
+     */
+    public String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * @return number of columns of the entity, counting each non-collection
+     * property and the identifier as one
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return number of uninitialized entities which Hibernate loads at once
+     * according to the mapping, 1 if the entity is not batch loaded
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return properties which may hold trackable entities or collections
+     */
+    public Property[] getAssociations() {
+        return associations;
+    }
+
+    /**
+     * @param name name of the property, with the path through components if
+     *             it belongs to one, e.g. "address.owner"
+     * @return the association of that name, or null if there is none
+     */
+    public Property getAssociation(String name) {
+        return associationsByName.get(name);
+    }
+
+    private Object writeReplace() {
+        return new SerialForm(sessionFactory, entityName);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append(entityName).append(": width=").append(width);
+        for (Property p : associations) {
+            str.append(", ").append(p);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Serialized form of the metadata. The session factory itself serializes
+     * by reference and resolves to the running factory when deserialized.
+     */
+    private static final class SerialForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SessionFactoryImplementor sessionFactory;
+
+        private final String entityName;
+
+        private SerialForm(SessionFactoryImplementor sessionFactory, String entityName) {
+            this.sessionFactory = sessionFactory;
+            this.entityName = entityName;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            EntityMetadata metadata = sessionFactory.getServiceRegistry().getService(AutofetchService.class)
+                    .getExtentManager().getEntityMetadata(entityName);
+            if (metadata == null) {
+                throw new InvalidObjectException("No entity metadata registered for " + entityName);
+            }
+            return metadata;
+        }
+    }
+}
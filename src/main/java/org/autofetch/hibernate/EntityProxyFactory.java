@@ -24,7 +24,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -65,7 +64,7 @@ public class EntityProxyFactory {
         return constructor;
     }
 
-    public static Object getProxyInstance(Class persistentClass, String idMethodName, Set<Property> persistentProperties,
+    public static Object getProxyInstance(Class persistentClass, String idMethodName, EntityMetadata metadata,
                                           ExtentManager extentManager)
             throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
 
@@ -77,7 +76,7 @@ public class EntityProxyFactory {
         Class<?> factory = getProxyFactory(persistentClass, idMethodName);
         try {
             final Object proxy = factory.newInstance();
-            ((Proxy) proxy).setHandler(new EntityProxyMethodHandler(persistentProperties, extentManager));
+            ((Proxy) proxy).setHandler(new EntityProxyMethodHandler(metadata, extentManager));
             return proxy;
         } catch (IllegalAccessException | InstantiationException e) {
             return useDefaultConstructor(persistentClass);
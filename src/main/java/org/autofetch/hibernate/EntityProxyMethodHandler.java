@@ -15,6 +15,7 @@
 package org.autofetch.hibernate;
 
 import javassist.util.proxy.MethodHandler;
+import javassist.util.proxy.Proxy;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
@@ -24,44 +25,85 @@ public class EntityProxyMethodHandler implements MethodHandler, Serializable {
 
     private final EntityTracker entityTracker;
 
-    public EntityProxyMethodHandler(Set<Property> persistentProperties, ExtentManager extentManager) {
-        this.entityTracker = new EntityTracker(persistentProperties, extentManager);
+    public EntityProxyMethodHandler(EntityMetadata metadata, ExtentManager extentManager) {
+        this.entityTracker = new EntityTracker(metadata, extentManager);
     }
 
     @Override
     public Object invoke(Object obj, Method thisMethod, Method proceed, Object[] args) throws Throwable {
-        if (args.length == 0) {
-            if (thisMethod.getName().equals("disableTracking")) {
+        MethodAction action = MethodAction.of(thisMethod);
+        if (action != MethodAction.DELEGATE) {
+            return invokeTracking(entityTracker, action, obj, args);
+        }
+        entityTracker.trackAccess(obj);
+        if (entityTracker.isAccessed()) {
+            // Retire the entity from tracking, so later calls go straight
+            // to the entity
+            ((Proxy) obj).setHandler(new AccessedEntityMethodHandler(entityTracker));
+        }
+        return proceed.invoke(obj, args);
+    }
+
+    /**
+     * Carries out a method of the tracking contract.
+     */
+    static Object invokeTracking(EntityTracker entityTracker, MethodAction action, Object obj, Object[] args) {
+        switch (action) {
+            case DISABLE_TRACKING: {
                 boolean oldValue = entityTracker.isTracking();
                 entityTracker.setTracking(false);
                 return oldValue;
-            } else if (thisMethod.getName().equals("enableTracking")) {
+            }
+            case ENABLE_TRACKING: {
                 boolean oldValue = entityTracker.isTracking();
                 entityTracker.setTracking(true);
                 return oldValue;
-            } else if (thisMethod.getName().equals("isAccessed")) {
-                return entityTracker.isAccessed();
             }
-        } else if (args.length == 1) {
-            if (thisMethod.getName().equals("addTracker") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+            case IS_ACCESSED:
+                return entityTracker.isAccessed();
+            case ADD_TRACKER:
                 entityTracker.addTracker((Statistics) args[0]);
                 return null;
-            } else if (thisMethod.getName().equals("addTrackers") && thisMethod.getParameterTypes()[0].equals(Set.class)) {
+            case ADD_TRACKERS: {
                 @SuppressWarnings("unchecked")
                 Set<Statistics> newTrackers = (Set) args[0];
                 entityTracker.addTrackers(newTrackers);
                 return null;
-            } else if (thisMethod.getName().equals("extendProfile") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+            }
+            case EXTEND_PROFILE:
                 entityTracker.extendProfile((Statistics) args[0], obj);
                 return null;
-            } else if (thisMethod.getName().equals("removeTracker") && thisMethod.getParameterTypes()[0].equals(Statistics.class)) {
+            case REMOVE_TRACKER:
                 entityTracker.removeTracker((Statistics) args[0]);
                 return null;
-            }
+            default:
+                throw new IllegalArgumentException("Not a tracking method: " + action);
         }
+    }
 
-        entityTracker.trackAccess(obj);
+    /**
+     * Handler of an entity which has been accessed. Its trackers have fired,
+     * so ordinary methods proceed without looking at the tracker. The
+     * tracking contract is still served, since accessed entities extend the
+     * profiles of queries which load them again.
+     */
+    static final class AccessedEntityMethodHandler implements MethodHandler, Serializable {
 
-        return proceed.invoke(obj, args);
+        private static final long serialVersionUID = 1L;
+
+        private final EntityTracker entityTracker;
+
+        AccessedEntityMethodHandler(EntityTracker entityTracker) {
+            this.entityTracker = entityTracker;
+        }
+
+        @Override
+        public Object invoke(Object obj, Method thisMethod, Method proceed, Object[] args) throws Throwable {
+            Class<?> declaringClass = thisMethod.getDeclaringClass();
+            if (declaringClass == Trackable.class || declaringClass == TrackableEntity.class) {
+                return invokeTracking(entityTracker, MethodAction.of(thisMethod), obj, args);
+            }
+            return proceed.invoke(obj, args);
+        }
     }
-}
\ No newline at end of file
+}
@@ -15,8 +15,7 @@
 package org.autofetch.hibernate;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
 
 public class EntityTracker implements Serializable {
@@ -25,46 +24,49 @@ public class EntityTracker implements Serializable {
 
     private boolean tracking = true;
 
-    private Set<Statistics> trackers = new HashSet<>();
+    // Null until the first tracker is added, and again once retired
+    private TrackerSet trackers;
 
-    private Set<Property> persistentProperties;
+    private EntityMetadata metadata;
 
     private ExtentManager extentManager;
 
     public EntityTracker(
-            Set<Property> persistentProperties,
+            EntityMetadata metadata,
             ExtentManager extentManager) {
-        this.persistentProperties = persistentProperties;
+        this.metadata = metadata;
         this.extentManager = extentManager;
     }
 
-    public void trackAccess(Object entity) throws Throwable {
+    /**
+     * Records the first access to the entity. Trackers only fire on the first
+     * access, so afterwards the entity is retired from tracking: its trackers
+     * are released and new ones are ignored.
+     */
+    public void trackAccess(Object entity) {
         if (tracking && !accessed) {
             this.accessed = true;
-            for (Statistics tracker : trackers) {
-                tracker.loadedAssociation();
-                extendProfile(tracker, entity);
+            if (trackers != null) {
+                for (Statistics tracker : trackers) {
+                    tracker.loadedAssociation();
+                    extendProfile(tracker, entity);
+                }
+                this.trackers = null;
             }
         }
     }
 
     public void removeTracker(Statistics tracker) {
-        trackers.remove(tracker);
+        if (trackers != null) {
+            trackers.remove(tracker);
+        }
     }
 
     public void extendProfile(Statistics tracker, Object entity) {
-        for (Property prop : persistentProperties) {
-            Object propVal = null;
-            try {
-                propVal = getPropertyValue(prop.getName(), entity);
-            } catch (IllegalStateException e) {
-                if (e.getCause() != null
-                        && e.getCause() instanceof NoSuchMethodException) {
-                    continue; // Weird property, just ignore it.
-                }
-            }
-            if (propVal instanceof Trackable) {
-                Trackable propEntity = (Trackable) propVal;
+        for (Property prop : metadata.getAssociations()) {
+            Object propVal = prop.getValue(entity);
+            Trackable propEntity = Trackables.asTrackable(propVal);
+            if (propEntity != null) {
                 Statistics propTracker = extendTracker(tracker,
                         prop.getName(), prop.isCollection());
                 if (propTracker != null) {
@@ -72,32 +74,7 @@ public class EntityTracker implements Serializable {
                 }
             }
         }
-    }
-
-    private static final Class[] NO_CLASSSES = new Class[0];
-
-    private static final Object[] NO_OBJECTS = new Object[0];
-
-    private Object getPropertyValue(String propName, Object o) {
-        // Construct method name using the property name and
-        // convention for getters
-        // Uppercase first letter of prop
-        StringBuilder propCapitalized = new StringBuilder(propName);
-
-        String str = propCapitalized.toString().substring(propCapitalized.indexOf("_") + 1);
-        StringBuilder buildString = new StringBuilder(str);
-        String result = buildString.substring(0,1).toUpperCase() + buildString.substring(1);
-        String methodName = "get" + result;
-        try {
-            Method m = o.getClass().getMethod(methodName, NO_CLASSSES);
-            if (!m.isAccessible()) {
-                m.setAccessible(true);
-            }
-            return m.invoke(o, NO_OBJECTS);
-        } catch (Exception e) {
-            throw new IllegalStateException("Could not access property: "
-                    + propName + ":" + methodName, e);
-        }
+        tracker.getProfileNode().recordWidth(metadata.getWidth());
     }
 
     /**
@@ -109,35 +86,44 @@ public class EntityTracker implements Serializable {
 
     private Statistics extendTracker(Statistics tracker, String assoc, boolean collection) {
         TraversalProfile parentNode = tracker.getProfileNode();
-        if (!parentNode.hasSubProfile(assoc)) {
-            if (!extentManager.addSubProfile(parentNode, assoc, collection)) {
-                return null;
-            }
+        Statistics newTracker = extentManager.getOrAddSubProfileStats(parentNode, assoc, collection);
+        if (newTracker == null) {
+            return null;
         }
 
-        Statistics newTracker = parentNode.getSubProfileStats(assoc);
         newTracker.incrementTotal(1);
         return newTracker;
     }
 
     public Set<Statistics> getTrackers() {
-        return trackers;
+        return trackers == null ? Collections.<Statistics>emptySet() : trackers;
     }
 
     public void addTracker(Statistics newTracker) {
-        trackers.add(newTracker);
+        if (!accessed) {
+            getOrCreateTrackers().add(newTracker);
+        }
     }
 
     public void addTrackers(Set<Statistics> newTrackers) {
-        trackers.addAll(newTrackers);
+        if (!accessed && !newTrackers.isEmpty()) {
+            getOrCreateTrackers().addAll(newTrackers);
+        }
+    }
+
+    private TrackerSet getOrCreateTrackers() {
+        if (trackers == null) {
+            trackers = new TrackerSet();
+        }
+        return trackers;
     }
 
-    public Set<Property> getPersistentProperties() {
-        return persistentProperties;
+    public EntityMetadata getMetadata() {
+        return metadata;
     }
 
-    public void setPersistentProperties(Set<Property> persistentProperties) {
-        this.persistentProperties = persistentProperties;
+    public void setMetadata(EntityMetadata metadata) {
+        this.metadata = metadata;
     }
 
     public boolean isTracking() {
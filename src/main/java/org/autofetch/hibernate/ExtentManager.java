@@ -11,14 +11,26 @@ package org.autofetch.hibernate;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.mapping.PersistentClass;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class manages extents for queries.
@@ -32,8 +44,36 @@ public class ExtentManager implements Serializable {
 
     private ConcurrentMap<QueryProgramStatePair, TraversalProfile> tpMap = new ConcurrentHashMap<>();
 
+    // Keys of tpMap in insertion order, swept by the eviction clock hand
+    private final ConcurrentLinkedQueue<QueryProgramStatePair> evictionQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger numProfiles = new AtomicInteger();
+
+    public static final int DEFAULT_MAX_PROFILES = 10000;
+
+    private int maxProfiles = DEFAULT_MAX_PROFILES;
+
+    private final StripedCounter profileHits = new StripedCounter();
+
+    private final StripedCounter profileMisses = new StripedCounter();
+
+    private final StripedCounter profileEvictions = new StripedCounter();
+
+    public static final int MAX_CACHED_QUERIES = 1024;
+
+    // Parsed HQL queries by query string, least recently used first. They
+    // name entities of the session factory, so they are not shared.
+    private transient Map<String, AutofetchQuery.RootQuery> rootQueries = newRootQueryCache();
+
+    // Metadata of the mapped entities by entity name, which serialized
+    // metadata resolves against, so it is not serialized itself
+    private transient ConcurrentMap<String, EntityMetadata> entityMetadata = new ConcurrentHashMap<>();
+
+    // Saved profiles, decoded into tpMap on demand
+    private transient volatile ProfileSnapshot snapshot;
+
     // Used for debugging
-    private TraversalProfile firstProfile = null;
+    private volatile TraversalProfile firstProfile = null;
 
     // Enables prefetching
     private boolean prefetch = true;
@@ -45,22 +85,75 @@ public class ExtentManager implements Serializable {
 
     private static final int DEFAULT_MAX_PREFETCH_DEPTH = 5;
 
+    // Factor by which the average size of a collection may move before its
+    // prefetch plan is recomputed
+    private static final double PLAN_SIZE_TOLERANCE = 2.0;
+
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    // Maximum number of entities or collections loaded by one prefetch query
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     private int maxPrefetchDepth = DEFAULT_MAX_PREFETCH_DEPTH;
 
+    public static final double DEFAULT_PROFILE_SAMPLE_RATE = 1.0;
+
+    public static final int DEFAULT_PROFILE_SAMPLE_WARMUP = 100;
+
+    // Fraction of root loads per call site which are tracked once its
+    // statistics are stable, 1 tracks all of them
+    private double profileSampleRate = DEFAULT_PROFILE_SAMPLE_RATE;
+
+    // Root loads per call site which are all tracked after its statistics
+    // changed, before sampling kicks in
+    private int profileSampleWarmup = DEFAULT_PROFILE_SAMPLE_WARMUP;
+
+    // Half-life in milliseconds of the statistics of a traversal profile,
+    // zero to never decay them
+    private long statisticsHalfLife;
+
+    // Decides how to fetch the associations of a traversal profile
+    private PrefetchStrategy prefetchStrategy = new ThresholdPrefetchStrategy();
+
+    // Identifies the program point of queries and loads
+    private CallSiteEngine callSiteEngine = new StackTraceCallSiteEngine();
+
     public boolean addSubProfile(TraversalProfile parentNode, String assoc, boolean collection) {
+        return getOrAddSubProfileStats(parentNode, assoc, collection) != null;
+    }
+
+    /**
+     * Returns the statistics of an association of a traversal profile node,
+     * adding a sub-profile for the association if there is none yet.
+     *
+     * @return statistics of the association, or null if the sub-profile would
+     * be deeper than the maximum prefetch depth
+     */
+    public Statistics getOrAddSubProfileStats(TraversalProfile parentNode, String assoc, boolean collection) {
         if (parentNode.getLevel() >= maxPrefetchDepth) {
-            return false;
+            return null;
         } else {
-            parentNode.addSubProfile(assoc, collection);
-            return true;
+            return parentNode.getOrAddSubProfile(assoc, collection).stats;
         }
     }
 
     public void markAsRoot(Object o, String queryId) {
-        TraversalProfile tp = getTraversalProfile(queryId);
-        if (o instanceof TrackableEntity) {
-            Statistics stats = new Statistics(tp);
-            TrackableEntity te = (TrackableEntity) o;
+        markAsRoot(o, getTraversalProfile(queryId));
+    }
+
+    /**
+     * Starts tracking the traversals from an object loaded by a query. When
+     * profile sampling is enabled, roots which are not sampled are left
+     * untracked and only benefit from the current prefetch plan.
+     *
+     * @param o  loaded object, ignored unless it is a tracked entity
+     * @param tp traversal profile of the query and call site which loaded it
+     * @see #setProfileSampleRate(double)
+     */
+    public void markAsRoot(Object o, TraversalProfile tp) {
+        TrackableEntity te = Trackables.asTrackableEntity(o);
+        if (te != null && (profileSampleRate >= 1.0 || tp.sampleRoot(profileSampleRate, profileSampleWarmup))) {
+            Statistics stats = new RootStatistics(tp);
             stats.incrementTotal(1);
             // Root element might have been accessed already for example
             // if it was in the session cache or an element of a collection.
@@ -82,19 +175,49 @@ public class ExtentManager implements Serializable {
             log.debug("Clearing extent information.");
         }
         tpMap.clear();
+        evictionQueue.clear();
+        numProfiles.set(0);
+        snapshot = null;
         firstProfile = null;
     }
 
     /**
      * Returns query extent for a given query and program state. If none exists, it creates a new one and returns it.
+     * Does not lock, and only allocates a new profile when none exists yet.
+     * Creating a profile may evict others if there are more than maxProfiles.
      *
      * @return The traversal profiel for the given queryId and this program point.
      */
-    protected synchronized TraversalProfile getTraversalProfile(String queryId) {
-        ProgramStack state = new ProgramStack();
+    protected TraversalProfile getTraversalProfile(String queryId) {
+        ProgramStack state = callSiteEngine.currentProgramStack();
         QueryProgramStatePair key = new QueryProgramStatePair(queryId, state);
-        tpMap.putIfAbsent(key, new TraversalProfile());
         TraversalProfile tp = tpMap.get(key);
+        if (tp != null) {
+            profileHits.add(1);
+            tp.markReferenced();
+        } else {
+            profileMisses.add(1);
+            TraversalProfile newTp = null;
+            ProfileSnapshot mapped = snapshot;
+            if (mapped != null) {
+                try {
+                    newTp = mapped.getProfile(queryId, state.getFingerprint());
+                } catch (IOException | RuntimeException e) {
+                    dropSnapshot(mapped, e);
+                }
+            }
+            if (newTp == null) {
+                newTp = new TraversalProfile();
+            }
+            tp = tpMap.putIfAbsent(key, newTp);
+            if (tp == null) {
+                tp = newTp;
+                evictionQueue.offer(key);
+                if (maxProfiles > 0 && numProfiles.incrementAndGet() > maxProfiles) {
+                    evictProfiles();
+                }
+            }
+        }
         if (firstProfile == null) {
             firstProfile = tp;
         }
@@ -102,48 +225,361 @@ public class ExtentManager implements Serializable {
     }
 
     /**
-     * Returns list of prefetch paths. List may be empty.
+     * Evicts profiles until there are at most maxProfiles, using the CLOCK
+     * approximation of LRU: profiles looked up since the hand last passed
+     * them get a second chance.
+     */
+    private void evictProfiles() {
+        while (numProfiles.get() > maxProfiles) {
+            QueryProgramStatePair key = evictionQueue.poll();
+            if (key == null) {
+                return;
+            }
+            TraversalProfile tp = tpMap.get(key);
+            if (tp == null) {
+                continue; // Already cleared
+            }
+            if (tp.clearReferenced()) {
+                evictionQueue.offer(key);
+            } else if (tpMap.remove(key, tp)) {
+                numProfiles.decrementAndGet();
+                profileEvictions.add(1);
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted traversal profile " + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns list of prefetch paths. List may be empty and is unmodifiable.
      *
      * @return List of paths to prefetch for a given query identifier and program point.
      */
     public List<Path> getPrefetchPaths(String queryId) {
-        TraversalProfile tp = getTraversalProfile(queryId);
-        List<Path> paths = new ArrayList<>();
+        return getPrefetchPaths(getTraversalProfile(queryId));
+    }
+
+    /**
+     * Returns list of prefetch paths for a traversal profile. List may be
+     * empty and is unmodifiable.
+     *
+     * @param tp top level traversal profile
+     * @return List of paths to prefetch
+     */
+    public List<Path> getPrefetchPaths(TraversalProfile tp) {
+        return getPrefetchPaths(tp, PrefetchMode.JOIN);
+    }
+
+    /**
+     * Returns list of paths of a traversal profile which the prefetch
+     * strategy decided to fetch a certain way. List may be empty and is
+     * unmodifiable.
+     *
+     * @param tp   top level traversal profile
+     * @param mode how the paths are fetched
+     * @return List of paths to fetch that way
+     */
+    public List<Path> getPrefetchPaths(TraversalProfile tp, PrefetchMode mode) {
         if ((tp == null) || !prefetch) {
-            return paths;
+            return Collections.emptyList();
+        }
+
+        return getPrefetchPlan(tp).getPaths(mode);
+    }
+
+    /**
+     * Returns the prefetch plan of a top level traversal profile. The plan is
+     * cached on the profile and only recomputed when the profile or the
+     * prefetch parameters changed, or when statistics moved far enough to
+     * change the outcome. Decays the statistics of the profile first if they
+     * have a half-life.
+     *
+     * @param tp top level traversal profile
+     * @return current prefetch plan, empty if prefetching is disabled
+     */
+    protected PrefetchPlan getPrefetchPlan(TraversalProfile tp) {
+        if (!prefetch) {
+            return PrefetchPlan.EMPTY;
+        }
+        if (statisticsHalfLife > 0) {
+            tp.decayStatistics(statisticsHalfLife, System.currentTimeMillis());
+        }
+        PrefetchPlan plan = tp.getPrefetchPlan();
+        if (plan != null && plan.isCurrent(tp.getPlanVersion(), prefetchStrategy, fetchParam, maxPrefetchDepth,
+                batchSize)) {
+            return plan;
         }
+        synchronized (tp) {
+            plan = tp.getPrefetchPlan();
+            int version = tp.getPlanVersion();
+            if (plan == null
+                    || !plan.isCurrent(version, prefetchStrategy, fetchParam, maxPrefetchDepth, batchSize)) {
+                plan = computePrefetchPlan(tp, version);
+                tp.setPrefetchPlan(plan);
+            }
+            return plan;
+        }
+    }
 
-        getPrefetchPaths(tp, new Path(), paths, 1.0, false);
-        return paths;
+    private PrefetchPlan computePrefetchPlan(TraversalProfile tp, int version) {
+        PlanContext ctx = new PlanContext(prefetchStrategy, fetchParam, maxPrefetchDepth, batchSize, tp.getWidth());
+        List<PlanNode> nodes = new ArrayList<>();
+        planAssociations(tp, new Path(), nodes, 1.0, false, ctx);
+        setPlanBounds(nodes, 0.0, version);
+        if (log.isDebugEnabled()) {
+            log.debug("Computed prefetch paths " + ctx.paths);
+        }
+        return new PrefetchPlan(ctx.paths, version, ctx.strategy, ctx.fetchParam, ctx.maxPrefetchDepth,
+                ctx.batchSize);
     }
 
-    private void getPrefetchPaths(TraversalProfile tp, Path prefix, List<Path> paths, double parentProbability,
-                                  boolean collAssocBanned) {
+    /**
+     * Decides how to fetch the associations of a profile node, descends into
+     * the join fetched ones, and records every association whose statistics
+     * were looked at.
+     *
+     * @return the tolerance of the shallowest recorded nodes
+     */
+    private double planAssociations(TraversalProfile tp, Path prefix, List<PlanNode> nodes,
+                                    double parentProbability, boolean collectionJoined, PlanContext ctx) {
 
-        if (prefix.size() > maxPrefetchDepth) {
-            return;
+        double tolerance = Double.POSITIVE_INFINITY;
+        if (prefix.size() > ctx.maxPrefetchDepth) {
+            return tolerance;
         }
 
-        for (String assoc : tp.getAssociations()) {
-            boolean collection = tp.isCollectionAssociation(assoc);
-            if (collAssocBanned && collection) {
-                continue;
+        for (TraversalProfile.TraversalProfileLink link : tp.getLinks()) {
+            boolean collection = link.collection;
+            Statistics stats = link.stats;
+            Path newPath = prefix.addTraversal(link.assoc);
+            PrefetchStrategy.Association assoc = new PrefetchStrategy.Association(newPath, collection, stats,
+                    link.profile.getWidth(), parentProbability, ctx.rows, ctx.rowWidth, collectionJoined,
+                    ctx.fetchParam, ctx.batchSize);
+            PrefetchStrategy.Decision decision = ctx.strategy.decide(assoc);
+            PrefetchMode mode = decision.getMode();
+            if (mode == PrefetchMode.JOIN && collection && collectionJoined) {
+                mode = PrefetchMode.SUBSELECT;
             }
 
-            long accessed = tp.getSubProfileStats(assoc).getAccessed();
-            long total = tp.getSubProfileStats(assoc).getTotal();
-
-            double localAccessPercentage = (double) accessed / (double) total;
+            double localAccessPercentage = stats.accessPercentage();
             double accessPercentage = localAccessPercentage * parentProbability;
-            if (accessPercentage > fetchParam) {                    
-                boolean wasCollAssocBanned = collAssocBanned;
-                collAssocBanned = collAssocBanned || collection;
-                Path newPath = prefix.addTraversal(assoc);
-                paths.add(newPath);
-                TraversalProfile subProfile = tp.getSubProfile(assoc);
-                getPrefetchPaths(subProfile, newPath, paths, accessPercentage, wasCollAssocBanned);
+            PlanNode node = new PlanNode(stats, collection, localAccessPercentage, parentProbability,
+                    decision.getHigh());
+            nodes.add(node);
+            if (localAccessPercentage > 0) {
+                // Spread the distance from the edges of the decision over the
+                // node and its ancestors
+                double distance = Double.POSITIVE_INFINITY;
+                if (decision.getLow() > 0) {
+                    distance = Math.log(accessPercentage) - Math.log(decision.getLow());
+                }
+                if (decision.getHigh() < Double.POSITIVE_INFINITY) {
+                    distance = Math.min(distance, Math.log(decision.getHigh()) - Math.log(accessPercentage));
+                }
+                node.tolerance = distance > 0 ? distance / (prefix.size() + 1) : 0.0;
+            }
+
+            if (mode != PrefetchMode.NONE) {
+                ctx.paths.get(mode).add(newPath);
+            }
+            if (mode == PrefetchMode.JOIN) {
+                boolean wasCollectionJoined = collectionJoined;
+                collectionJoined = collectionJoined || collection;
+                int width = link.profile.getWidth();
+                if (collection) {
+                    double size = stats.averageSize();
+                    if (size > 1) {
+                        ctx.rows *= size;
+                    }
+                }
+                ctx.rowWidth += width;
+                node.children = new ArrayList<>();
+                node.tolerance = Math.min(node.tolerance, planAssociations(link.profile, newPath, node.children,
+                        accessPercentage, wasCollectionJoined, ctx));
+            }
+            tolerance = Math.min(tolerance, node.tolerance);
+        }
+        return tolerance;
+    }
+
+    /**
+     * Gives every recorded association the range of access percentages it may
+     * move in without changing any prefetch decision, even if all others move
+     * within theirs at the same time.
+     * <p>
+     * Decisions compare the product of access percentages along a path with
+     * the edges of the range the strategy gave for it. Each node may move its
+     * percentage by a factor of exp(tolerance), where the tolerances along any
+     * path add up to less than the distance of that path from the edges in
+     * log space. Associations which were never accessed cannot be scaled, so
+     * they get an upper bound which accounts for the worst case movement of
+     * their ancestors instead. Strategies may also weigh the average size of
+     * collections, which may move by a factor of PLAN_SIZE_TOLERANCE.
+     */
+    private static void setPlanBounds(List<PlanNode> nodes, double ancestorTolerance, int version) {
+        for (PlanNode node : nodes) {
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            if (node.localAccessPercentage > 0) {
+                double factor = Math.exp(node.tolerance);
+                low = node.localAccessPercentage / factor;
+                high = node.localAccessPercentage * factor;
+            } else if (node.high >= 0 && node.high < Double.POSITIVE_INFINITY) {
+                high = node.high / (node.parentProbability * Math.exp(ancestorTolerance));
+            }
+            double minSize = Double.NEGATIVE_INFINITY;
+            double maxSize = Double.POSITIVE_INFINITY;
+            if (node.collection) {
+                if (Double.isNaN(node.size)) {
+                    // Planned with a default size, any measured size replans
+                    minSize = Double.POSITIVE_INFINITY;
+                    maxSize = Double.NEGATIVE_INFINITY;
+                } else {
+                    minSize = node.size / PLAN_SIZE_TOLERANCE;
+                    maxSize = node.size * PLAN_SIZE_TOLERANCE;
+                }
+            }
+            node.stats.setPlanBounds(version, low, high, minSize, maxSize);
+            if (node.children != null) {
+                setPlanBounds(node.children, ancestorTolerance + node.tolerance, version);
+            }
+        }
+    }
+
+    /**
+     * Parameters and state of the plan being computed.
+     */
+    private static class PlanContext {
+
+        private final PrefetchStrategy strategy;
+
+        private final double fetchParam;
+
+        private final int maxPrefetchDepth;
+
+        private final int batchSize;
+
+        private final Map<PrefetchMode, List<Path>> paths = new EnumMap<>(PrefetchMode.class);
+
+        // Expected rows per root object and columns per row of the query
+        // with the joins decided so far
+        private double rows = 1.0;
+
+        private int rowWidth;
+
+        PlanContext(PrefetchStrategy strategy, double fetchParam, int maxPrefetchDepth, int batchSize,
+                    int rowWidth) {
+            this.strategy = strategy;
+            this.fetchParam = fetchParam;
+            this.maxPrefetchDepth = maxPrefetchDepth;
+            this.batchSize = batchSize;
+            this.rowWidth = rowWidth;
+            for (PrefetchMode mode : PrefetchMode.values()) {
+                if (mode != PrefetchMode.NONE) {
+                    paths.put(mode, new ArrayList<Path>());
+                }
+            }
+        }
+    }
+
+    /**
+     * An association looked at while computing a prefetch plan.
+     */
+    private static class PlanNode {
+
+        private final Statistics stats;
+
+        private final boolean collection;
+
+        // Average collection size the strategy saw, NaN if unknown
+        private final double size;
+
+        private final double localAccessPercentage;
+
+        private final double parentProbability;
+
+        // Highest probability for which the decision holds
+        private final double high;
+
+        private double tolerance = Double.POSITIVE_INFINITY;
+
+        private List<PlanNode> children;
+
+        PlanNode(Statistics stats, boolean collection, double localAccessPercentage, double parentProbability,
+                 double high) {
+            this.stats = stats;
+            this.collection = collection;
+            this.size = collection ? stats.averageSize() : Double.NaN;
+            this.localAccessPercentage = localAccessPercentage;
+            this.parentProbability = parentProbability;
+            this.high = high;
+        }
+    }
+
+    /**
+     * Writes all traversal profiles in the compact snapshot format, along
+     * with the query and call site they belong to. Call sites are written as
+     * fingerprints only. Profiles of a mapped snapshot which were not needed
+     * yet are written as well. May be called while profiles are in use.
+     *
+     * @param out stream to write to, not closed
+     * @return number of profiles written
+     * @throws IOException if the stream cannot be written
+     * @see #mapProfiles(File)
+     */
+    public int writeProfiles(OutputStream out) throws IOException {
+        List<ProfileSnapshot.Entry> entries = new ArrayList<>();
+        for (Map.Entry<QueryProgramStatePair, TraversalProfile> entry : tpMap.entrySet()) {
+            QueryProgramStatePair key = entry.getKey();
+            entries.add(new ProfileSnapshot.Entry(key.getQueryRootClasses(), key.getState().getFingerprint(),
+                    entry.getValue()));
+        }
+        ProfileSnapshot mapped = snapshot;
+        if (mapped != null) {
+            try {
+                for (int i = 0; i < mapped.size(); i++) {
+                    String queryId = mapped.getQueryId(i);
+                    long fingerprint = mapped.getFingerprint(i);
+                    if (!tpMap.containsKey(new QueryProgramStatePair(queryId, new ProgramStack(fingerprint)))) {
+                        entries.add(new ProfileSnapshot.Entry(queryId, fingerprint, mapped.getProfile(i)));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                dropSnapshot(mapped, e);
             }
         }
+        ProfileSnapshot.write(out, entries);
+        return entries.size();
+    }
+
+    /**
+     * Stops using a mapped snapshot which turned out to be corrupt. Profiles
+     * only serve performance, so the failure is logged rather than passed on
+     * to the query or load which needed the profile.
+     */
+    private void dropSnapshot(ProfileSnapshot mapped, Exception e) {
+        if (snapshot == mapped) {
+            snapshot = null;
+            log.warn("Ignoring traversal profiles of " + mapped.getFile(), e);
+        }
+    }
+
+    /**
+     * Makes the traversal profiles of a file written by
+     * {@link #writeProfiles(OutputStream)} available. The file is memory
+     * mapped, and a profile is only decoded when its query is first run from
+     * its call site. Existing profiles take precedence. Replaces any
+     * previously mapped file.
+     *
+     * @param file snapshot file
+     * @return number of profiles in the file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public int mapProfiles(File file) throws IOException {
+        ProfileSnapshot mapped = ProfileSnapshot.open(file);
+        snapshot = mapped;
+        return mapped.size();
     }
 
     /**
@@ -172,6 +608,24 @@ public class ExtentManager implements Serializable {
      *
      * @author aibrahim
      */
+    /**
+     * Map in access order which drops the least recently used query when it
+     * grows beyond MAX_CACHED_QUERIES.
+     */
+    private static final class RootQueryCache extends LinkedHashMap<String, AutofetchQuery.RootQuery> {
+
+        private static final long serialVersionUID = 1L;
+
+        RootQueryCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AutofetchQuery.RootQuery> eldest) {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    }
+
     private static class QueryProgramStatePair implements Serializable {
 
         private String queryRootClasses;
@@ -227,6 +681,103 @@ public class ExtentManager implements Serializable {
         }
     }
 
+    public int getMaxProfiles() {
+        return maxProfiles;
+    }
+
+    /**
+     * Sets the maximum number of traversal profiles to keep.
+     *
+     * @param maxProfiles maximum number of profiles, zero for no limit
+     * @see AutofetchSettings#MAX_PROFILES
+     */
+    public void setMaxProfiles(int maxProfiles) {
+        if (maxProfiles < 0) {
+            throw new IllegalArgumentException("maxProfiles cannot be negative: " + maxProfiles);
+        }
+        this.maxProfiles = maxProfiles;
+    }
+
+    /**
+     * @return number of lookups which found an existing traversal profile
+     */
+    public long getProfileHitCount() {
+        return profileHits.sum();
+    }
+
+    /**
+     * @return number of lookups which did not find a traversal profile
+     */
+    public long getProfileMissCount() {
+        return profileMisses.sum();
+    }
+
+    /**
+     * @return number of traversal profiles evicted to stay within maxProfiles
+     */
+    public long getProfileEvictionCount() {
+        return profileEvictions.sum();
+    }
+
+    public double getProfileSampleRate() {
+        return profileSampleRate;
+    }
+
+    /**
+     * Sets the fraction of root loads per call site whose traversals are
+     * tracked once its statistics are stable. Every root is tracked while the
+     * statistics are young or after they moved enough to change the prefetch
+     * plan, then the fraction decreases toward this rate.
+     *
+     * @param profileSampleRate fraction between 0 and 1, 1 tracks every root
+     * @see AutofetchSettings#PROFILE_SAMPLE_RATE
+     */
+    public void setProfileSampleRate(double profileSampleRate) {
+        if (!(profileSampleRate >= 0 && profileSampleRate <= 1)) {
+            throw new IllegalArgumentException("profileSampleRate must be between 0 and 1: " + profileSampleRate);
+        }
+        this.profileSampleRate = profileSampleRate;
+    }
+
+    public int getProfileSampleWarmup() {
+        return profileSampleWarmup;
+    }
+
+    /**
+     * Sets how many roots per call site are tracked after its statistics
+     * changed before sampling starts. Only used if the profile sample rate is
+     * below 1.
+     *
+     * @param profileSampleWarmup number of root loads, may not be negative
+     * @see AutofetchSettings#PROFILE_SAMPLE_WARMUP
+     */
+    public void setProfileSampleWarmup(int profileSampleWarmup) {
+        if (profileSampleWarmup < 0) {
+            throw new IllegalArgumentException("profileSampleWarmup cannot be negative: " + profileSampleWarmup);
+        }
+        this.profileSampleWarmup = profileSampleWarmup;
+    }
+
+    public long getStatisticsHalfLife() {
+        return statisticsHalfLife;
+    }
+
+    /**
+     * Sets the half-life of the statistics, so that prefetch decisions follow
+     * changes in how the application traverses the objects it loads. Older
+     * traversals count exponentially less than recent ones.
+     *
+     * @param statisticsHalfLife half-life in milliseconds, zero to weigh all
+     *                           traversals alike
+     * @see AutofetchSettings#STATISTICS_HALF_LIFE
+     */
+    public void setStatisticsHalfLife(long statisticsHalfLife) {
+        if (statisticsHalfLife < 0) {
+            throw new IllegalArgumentException("statisticsHalfLife cannot be negative: " + statisticsHalfLife);
+        }
+        this.statisticsHalfLife = statisticsHalfLife;
+    }
+
     public void setPrefetch(boolean fetch) {
         prefetch = fetch;
     }
@@ -247,6 +798,118 @@ public class ExtentManager implements Serializable {
         this.fetchParam = fetchParam;
     }
     
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many entities are loaded by a prefetch query at most.
+     *
+     * @param batchSize maximum number of entities, 1 disables batching
+     * @see AutofetchSettings#BATCH_SIZE
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public PrefetchStrategy getPrefetchStrategy() {
+        return prefetchStrategy;
+    }
+
+    /**
+     * Sets the strategy which decides how to fetch associations. Cached
+     * prefetch plans are recomputed with the new strategy when next used.
+     *
+     * @param prefetchStrategy strategy to use, may not be null
+     */
+    public void setPrefetchStrategy(PrefetchStrategy prefetchStrategy) {
+        if (prefetchStrategy == null) {
+            throw new IllegalArgumentException("prefetchStrategy cannot be null");
+        }
+        this.prefetchStrategy = prefetchStrategy;
+    }
+
+    public CallSiteEngine getCallSiteEngine() {
+        return callSiteEngine;
+    }
+
+    /**
+     * Changes how call sites are identified. Profiles learned with the previous
+     * engine will not be found anymore, so this should be called before any
+     * queries are executed.
+     *
+     * @param callSiteEngine engine to use, may not be null
+     */
+    public void setCallSiteEngine(CallSiteEngine callSiteEngine) {
+        if (callSiteEngine == null) {
+            throw new IllegalArgumentException("callSiteEngine cannot be null");
+        }
+        this.callSiteEngine = callSiteEngine;
+    }
+
+    /**
+     * Registers the metadata of all entities of a session factory, replacing
+     * metadata registered before under the same entity names.
+     *
+     * @param sessionFactory session factory the classes are mapped by
+     * @param classMappings  mappings of the persistent classes
+     */
+    public void registerEntityMetadata(SessionFactoryImplementor sessionFactory,
+            Iterator<PersistentClass> classMappings) {
+        entityMetadata.putAll(EntityMetadata.build(sessionFactory, classMappings));
+    }
+
+    /**
+     * Returns the registered metadata of an entity, building it if the
+     * entity was not registered at integration time.
+     *
+     * @param sessionFactory  session factory the class is mapped by
+     * @param persistentClass mapping of the persistent class
+     * @return shared metadata of the entity
+     */
+    public EntityMetadata getEntityMetadata(SessionFactoryImplementor sessionFactory,
+            PersistentClass persistentClass) {
+        EntityMetadata metadata = entityMetadata.get(persistentClass.getEntityName());
+        if (metadata == null) {
+            metadata = EntityMetadata.build(sessionFactory, persistentClass);
+            EntityMetadata existing = entityMetadata.putIfAbsent(persistentClass.getEntityName(), metadata);
+            if (existing != null) {
+                metadata = existing;
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * @param entityName name of the entity
+     * @return registered metadata of the entity, or null if there is none
+     */
+    public EntityMetadata getEntityMetadata(String entityName) {
+        return entityMetadata.get(entityName);
+    }
+
+    /**
+     * @return the parsed form of an HQL query, or null if it is not cached
+     */
+    AutofetchQuery.RootQuery getRootQuery(String queryString) {
+        return rootQueries.get(queryString);
+    }
+
+    /**
+     * Caches the parsed form of an HQL query, evicting the least recently
+     * used query if there are too many.
+     */
+    void putRootQuery(String queryString, AutofetchQuery.RootQuery rootQuery) {
+        rootQueries.put(queryString, rootQuery);
+    }
+
+    private static Map<String, AutofetchQuery.RootQuery> newRootQueryCache() {
+        return Collections.synchronizedMap(new RootQueryCache());
+    }
+
     public void setFirstProfile(TraversalProfile tp) {
     	this.firstProfile = tp;
     }
@@ -254,4 +917,10 @@ public class ExtentManager implements Serializable {
     public TraversalProfile getFirstProfile() {
         return firstProfile;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        entityMetadata = new ConcurrentHashMap<>();
+        rootQueries = newRootQueryCache();
+    }
 }
\ No newline at end of file
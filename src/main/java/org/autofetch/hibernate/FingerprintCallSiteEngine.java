@@ -0,0 +1,57 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Identifies call sites by a 64-bit rolling hash of the class, method and
+ * line number of the first few application frames. Neither the frames nor
+ * any intermediate collections are retained, so this is the cheapest engine,
+ * at the cost of profiles only being printable by their fingerprint.
+ * <p>
+ * Where {@code java.lang.StackWalker} is available the stack is walked lazily
+ * and only up to the last fingerprinted frame. On Java 7 the stack trace is
+ * captured as a whole; only the work done on it is bounded.
+ */
+public class FingerprintCallSiteEngine implements CallSiteEngine {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxFrames;
+
+    public FingerprintCallSiteEngine() {
+        this(ProgramStack.MAX_STACK_FRAMES);
+    }
+
+    /**
+     * @param maxFrames number of application frames which identify a call site
+     */
+    public FingerprintCallSiteEngine(int maxFrames) {
+        if (maxFrames <= 0) {
+            throw new IllegalArgumentException("maxFrames must be positive: " + maxFrames);
+        }
+        this.maxFrames = maxFrames;
+    }
+
+    @Override
+    public ProgramStack currentProgramStack() {
+        StackTraceElement[] frames = ApplicationStackWalker.applicationFrames(maxFrames);
+        if (frames == null) {
+            frames = new Throwable().getStackTrace();
+        }
+        return new ProgramStack(ProgramStack.fingerprint(frames, maxFrames));
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+}
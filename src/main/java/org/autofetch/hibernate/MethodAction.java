@@ -0,0 +1,87 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What a proxy handler does with an intercepted method. Resolved once per
+ * method and cached, so that ordinary getters do not pay for comparing
+ * method names and parameter types on every call. Methods which are not
+ * declared by the tracking interfaces are delegated without a lookup.
+ */
+enum MethodAction {
+
+    ENABLE_TRACKING,
+    DISABLE_TRACKING,
+    IS_ACCESSED,
+    ADD_TRACKER,
+    ADD_TRACKERS,
+    REMOVE_TRACKER,
+    EXTEND_PROFILE,
+    /**
+     * Not part of the tracking contract, tracks the access and proceeds
+     */
+    DELEGATE;
+
+    private static final ConcurrentMap<Method, MethodAction> actions = new ConcurrentHashMap<>();
+
+    /**
+     * @param method intercepted method
+     * @return action for the method
+     */
+    static MethodAction of(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (declaringClass != Trackable.class && declaringClass != TrackableEntity.class) {
+            return DELEGATE;
+        }
+        MethodAction action = actions.get(method);
+        if (action == null) {
+            action = resolve(method);
+            actions.putIfAbsent(method, action);
+        }
+        return action;
+    }
+
+    private static MethodAction resolve(Method method) {
+        Class<?>[] params = method.getParameterTypes();
+        String name = method.getName();
+        if (params.length == 0) {
+            switch (name) {
+                case "enableTracking":
+                    return ENABLE_TRACKING;
+                case "disableTracking":
+                    return DISABLE_TRACKING;
+                case "isAccessed":
+                    return IS_ACCESSED;
+            }
+        } else if (params.length == 1) {
+            if (params[0].equals(Statistics.class)) {
+                switch (name) {
+                    case "addTracker":
+                        return ADD_TRACKER;
+                    case "removeTracker":
+                        return REMOVE_TRACKER;
+                    case "extendProfile":
+                        return EXTEND_PROFILE;
+                }
+            } else if (params[0].equals(Set.class) && name.equals("addTrackers")) {
+                return ADD_TRACKERS;
+            }
+        }
+        return DELEGATE;
+    }
+}
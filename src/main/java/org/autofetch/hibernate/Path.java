@@ -27,8 +27,13 @@ import java.util.List;
 
 public class Path implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private List<String> traversals;
 
+    // Cached, 0 until computed
+    private int hash;
+
     @SuppressWarnings("unchecked")
     public Path() {
         traversals = Collections.EMPTY_LIST; // Use Collections.emptyList() instead
@@ -98,6 +103,11 @@ public class Path implements Serializable {
 
     @Override
     public int hashCode() {
-        return traversals.hashCode();
+        int h = hash;
+        if (h == 0) {
+            h = traversals.hashCode();
+            hash = h;
+        }
+        return h;
     }
 }
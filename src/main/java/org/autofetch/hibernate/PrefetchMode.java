@@ -0,0 +1,42 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * How an association of a traversal profile is fetched.
+ *
+ * @see PrefetchStrategy
+ */
+public enum PrefetchMode {
+
+    /**
+     * Not prefetched, loaded when it is first accessed. With a batch size,
+     * other uninitialized instances of the same association in the session
+     * are loaded along with it.
+     *
+     * @see ExtentManager#setBatchSize(int)
+     */
+    NONE,
+
+    /**
+     * Join fetched by the query which loads the parent.
+     */
+    JOIN,
+
+    /**
+     * Loaded for all parents right after them by a separate query, which
+     * selects the parents by their ids and join fetches the collection. Only
+     * applies to collections.
+     */
+    SUBSELECT
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The paths to prefetch for a traversal profile, as decided from its
+ * statistics at some point in time. A plan is cached on the root of the
+ * traversal profile and stays valid until one of the statistics it was
+ * computed from moves far enough to change a decision, or the profile grows.
+ * This class is immutable.
+ *
+ * @see ExtentManager#getPrefetchPaths(String)
+ */
+public final class PrefetchPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kinds of queries generated from the join paths of a plan.
+     */
+    enum QueryType {
+        // Loads an entity, or a collection with its owner, by id
+        LOAD,
+        // Loads several of them by ids
+        BATCH_LOAD,
+        // HQL query of the application with joins added
+        HQL
+    }
+
+    /**
+     * Plan which prefetches nothing.
+     */
+    static final PrefetchPlan EMPTY = new PrefetchPlan(Collections.<PrefetchMode, List<Path>>emptyMap(), -1, null,
+            0.0, 0, 0);
+
+    private final Map<PrefetchMode, List<Path>> paths;
+
+    private final int version;
+
+    private final PrefetchStrategy strategy;
+
+    private final double fetchParam;
+
+    private final int maxPrefetchDepth;
+
+    private final int batchSize;
+
+    // Queries generated from this plan by type, each along with what it was
+    // generated from, so they live exactly as long as the paths they join
+    private final AtomicReferenceArray<String[]> queries = new AtomicReferenceArray<>(QueryType.values().length);
+
+    PrefetchPlan(Map<PrefetchMode, List<Path>> paths, int version, PrefetchStrategy strategy, double fetchParam,
+                 int maxPrefetchDepth, int batchSize) {
+        this.paths = new EnumMap<>(PrefetchMode.class);
+        for (Map.Entry<PrefetchMode, List<Path>> entry : paths.entrySet()) {
+            this.paths.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        this.version = version;
+        this.strategy = strategy;
+        this.fetchParam = fetchParam;
+        this.maxPrefetchDepth = maxPrefetchDepth;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return unmodifiable list of paths to join fetch, may be empty
+     */
+    public List<Path> getPaths() {
+        return getPaths(PrefetchMode.JOIN);
+    }
+
+    /**
+     * @param mode how the paths are fetched
+     * @return unmodifiable list of paths to fetch that way, may be empty
+     */
+    public List<Path> getPaths(PrefetchMode mode) {
+        List<Path> modePaths = paths.get(mode);
+        return modePaths == null ? Collections.<Path>emptyList() : modePaths;
+    }
+
+    /**
+     * Returns a query generated from the join paths of this plan, if it was
+     * cached with {@link #putQuery(QueryType, String, String)}.
+     *
+     * @param type   kind of query
+     * @param source what the query is generated from besides the paths, such
+     *               as the entity name or the HQL query it extends
+     * @return the cached query, or null if there is none for the source
+     */
+    String getQuery(QueryType type, String source) {
+        String[] cached = queries.get(type.ordinal());
+        return cached != null && cached[0].equals(source) ? cached[1] : null;
+    }
+
+    /**
+     * Caches a query generated from the join paths of this plan, replacing
+     * the one of the same type.
+     */
+    void putQuery(QueryType type, String source, String query) {
+        queries.set(type.ordinal(), new String[]{source, query});
+    }
+
+    /**
+     * @return whether the plan was computed for the given version and
+     * prefetch parameters
+     */
+    boolean isCurrent(int version, PrefetchStrategy strategy, double fetchParam, int maxPrefetchDepth,
+                      int batchSize) {
+        return this.version == version && this.strategy == strategy && this.fetchParam == fetchParam
+                && this.maxPrefetchDepth == maxPrefetchDepth && this.batchSize == batchSize;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + version + " " + paths;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.Serializable;
+
+/**
+ * Decides how to fetch each association of a traversal profile. The extent
+ * manager walks a profile from its root and asks for a decision on every
+ * association it reaches; only the associations of join fetched ones are
+ * visited further.
+ * <p>
+ * Prefetch plans are cached, so each decision comes with the range of
+ * probabilities within which it would not change. Plans are recomputed once
+ * a probability leaves its range or the profile grows.
+ *
+ * @see ExtentManager#setPrefetchStrategy(PrefetchStrategy)
+ */
+public interface PrefetchStrategy extends Serializable {
+
+    /**
+     * @param assoc association to decide on, along with what was decided for
+     *              its query so far
+     * @return decision, never null
+     */
+    Decision decide(Association assoc);
+
+    /**
+     * An association reached while planning, and the state of the plan at
+     * that point.
+     */
+    final class Association {
+
+        private final Path path;
+
+        private final boolean collection;
+
+        private final Statistics stats;
+
+        private final int width;
+
+        private final double parentProbability;
+
+        private final double rows;
+
+        private final int rowWidth;
+
+        private final boolean collectionJoined;
+
+        private final double fetchParam;
+
+        private final int batchSize;
+
+        Association(Path path, boolean collection, Statistics stats, int width, double parentProbability,
+                    double rows, int rowWidth, boolean collectionJoined, double fetchParam, int batchSize) {
+            this.path = path;
+            this.collection = collection;
+            this.stats = stats;
+            this.width = width;
+            this.parentProbability = parentProbability;
+            this.rows = rows;
+            this.rowWidth = rowWidth;
+            this.collectionJoined = collectionJoined;
+            this.fetchParam = fetchParam;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * @return path from the root to the association
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean isCollection() {
+            return collection;
+        }
+
+        public Statistics getStatistics() {
+            return stats;
+        }
+
+        /**
+         * @return number of columns of the associated entity, zero if unknown
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return probability that the association is accessed for a root
+         * object, i.e. the product of the access percentages along its path
+         */
+        public double getProbability() {
+            return stats.accessPercentage() * parentProbability;
+        }
+
+        /**
+         * @return probability that the parent of the association is accessed
+         * for a root object
+         */
+        public double getParentProbability() {
+            return parentProbability;
+        }
+
+        /**
+         * @return expected number of rows per root object returned by the
+         * query with the joins decided so far
+         */
+        public double getRows() {
+            return rows;
+        }
+
+        /**
+         * @return number of columns of the rows returned by the query with
+         * the joins decided so far, zero if unknown
+         */
+        public int getRowWidth() {
+            return rowWidth;
+        }
+
+        /**
+         * @return whether a sibling collection was join fetched already, in
+         * which case the association is fetched by a subselect rather than
+         * join fetched if it is a collection itself
+         */
+        public boolean isCollectionJoined() {
+            return collectionJoined;
+        }
+
+        /**
+         * @return fetch parameter of the extent manager
+         */
+        public double getFetchParam() {
+            return fetchParam;
+        }
+
+        /**
+         * @return batch size of the extent manager
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+    }
+
+    /**
+     * How to fetch an association, and the range of probabilities of the
+     * association being accessed in which this holds.
+     */
+    final class Decision {
+
+        private final PrefetchMode mode;
+
+        private final double low;
+
+        private final double high;
+
+        /**
+         * @param mode how to fetch the association
+         * @param low  lowest probability for which the decision holds
+         * @param high highest probability for which the decision holds
+         */
+        public Decision(PrefetchMode mode, double low, double high) {
+            if (mode == null) {
+                throw new IllegalArgumentException("mode cannot be null");
+            }
+            this.mode = mode;
+            this.low = low;
+            this.high = high;
+        }
+
+        public PrefetchMode getMode() {
+            return mode;
+        }
+
+        public double getLow() {
+            return low;
+        }
+
+        public double getHigh() {
+            return high;
+        }
+
+        @Override
+        public String toString() {
+            return mode + " [" + low + ", " + high + "]";
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traversal profiles saved to a file in a compact binary format, which is
+ * memory mapped and decoded one profile at a time, when it is first needed.
+ * Only the string table is read onto the heap when the file is opened.
+ * <p>
+ * Layout, with all numbers big endian:
+ * <pre>
+ * int      magic, "AFPS"
+ * int      format version
+ * int      number of strings, followed by each string as a varint byte length and UTF-8 bytes
+ * int      number of profiles, followed by an index entry per profile, sorted by fingerprint:
+ *          long call site fingerprint, int string index of query id, int offset of profile in data
+ * data     profiles, each a varint entity width and a varint number of links, followed by each
+ *          link as a varint string index of the association, a byte which is 1 for collections,
+ *          a varint number of accesses, a varint total, a varint number of collection elements,
+ *          and the profile the link leads to
+ * </pre>
+ * Varints are unsigned LEB128. This class is immutable and thread-safe.
+ */
+final class ProfileSnapshot {
+
+    private static final int MAGIC = 0x41465053;
+
+    // Bumped when the format changes incompatibly
+    static final int FORMAT_VERSION = 3;
+
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    // Profiles are never written deeper than the maximum prefetch depth,
+    // this only guards the recursive decoding against corrupt files
+    private static final int MAX_PROFILE_DEPTH = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A profile to write, along with its query and call site.
+     */
+    static final class Entry {
+
+        final String queryId;
+
+        final long fingerprint;
+
+        final TraversalProfile profile;
+
+        Entry(String queryId, long fingerprint, TraversalProfile profile) {
+            this.queryId = queryId;
+            this.fingerprint = fingerprint;
+            this.profile = profile;
+        }
+    }
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final String[] strings;
+
+    private final Map<String, Integer> stringIndexes;
+
+    private final int numProfiles;
+
+    private final int indexStart;
+
+    private final int dataStart;
+
+    private ProfileSnapshot(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int pos = 0;
+        if (buffer.limit() < 8 || buffer.getInt(pos) != MAGIC) {
+            throw new IOException(file + " is not a traversal profile snapshot");
+        }
+        int version = buffer.getInt(pos + 4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException(file + " has unknown format " + version);
+        }
+        pos += 8;
+        int numStrings = readInt(pos);
+        pos += 4;
+        // Every string takes at least one byte
+        if (numStrings < 0 || numStrings > buffer.limit() - pos) {
+            throw corrupt();
+        }
+        strings = new String[numStrings];
+        stringIndexes = new HashMap<>(numStrings * 2);
+        int[] cursor = { pos };
+        for (int i = 0; i < numStrings; i++) {
+            int length = readBounded(cursor, buffer.limit() - cursor[0]);
+            byte[] bytes = new byte[length];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(cursor[0]);
+            dup.get(bytes);
+            cursor[0] += length;
+            strings[i] = new String(bytes, UTF8);
+            stringIndexes.put(strings[i], i);
+        }
+        pos = cursor[0];
+        numProfiles = readInt(pos);
+        indexStart = pos + 4;
+        if (numProfiles < 0 || numProfiles > (buffer.limit() - indexStart) / INDEX_ENTRY_SIZE) {
+            throw corrupt();
+        }
+        dataStart = indexStart + numProfiles * INDEX_ENTRY_SIZE;
+        int dataLength = buffer.limit() - dataStart;
+        for (int i = 0; i < numProfiles; i++) {
+            int entry = indexStart + i * INDEX_ENTRY_SIZE;
+            int queryIdx = buffer.getInt(entry + 8);
+            int offset = buffer.getInt(entry + 12);
+            if (queryIdx < 0 || queryIdx >= numStrings || offset < 0 || offset >= dataLength) {
+                throw corrupt();
+            }
+        }
+    }
+
+    /**
+     * Maps a snapshot file into memory.
+     *
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static ProfileSnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ProfileSnapshot(file, buffer);
+        } catch (RuntimeException e) {
+            // Bounds are checked, but a corrupt file must never get past here
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of profiles in the snapshot
+     */
+    int size() {
+        return numProfiles;
+    }
+
+    String getQueryId(int i) {
+        return strings[buffer.getInt(indexStart + i * INDEX_ENTRY_SIZE + 8)];
+    }
+
+    long getFingerprint(int i) {
+        return buffer.getLong(indexStart + i * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * Decodes the profile for a query and call site.
+     *
+     * @return a new traversal profile, or null if the snapshot has none for
+     * the query and call site
+     * @throws IOException if the profile is corrupt
+     */
+    TraversalProfile getProfile(String queryId, long fingerprint) throws IOException {
+        Integer queryIdx = stringIndexes.get(queryId);
+        if (queryIdx == null) {
+            return null;
+        }
+        // Find the first entry with the fingerprint, then scan for the query
+        int low = 0;
+        int high = numProfiles;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getFingerprint(mid) < fingerprint) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < numProfiles && getFingerprint(i) == fingerprint; i++) {
+            if (buffer.getInt(indexStart + i * INDEX_ENTRY_SIZE + 8) == queryIdx) {
+                return getProfile(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the i-th profile of the index.
+     *
+     * @return a new traversal profile
+     * @throws IOException if the profile is corrupt
+     */
+    TraversalProfile getProfile(int i) throws IOException {
+        int[] cursor = { dataStart + buffer.getInt(indexStart + i * INDEX_ENTRY_SIZE + 12) };
+        TraversalProfile tp = new TraversalProfile();
+        try {
+            readProfile(tp, cursor);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+        return tp;
+    }
+
+    private void readProfile(TraversalProfile tp, int[] cursor) throws IOException {
+        if (tp.getLevel() > MAX_PROFILE_DEPTH) {
+            throw corrupt();
+        }
+        tp.recordWidth(readBounded(cursor, Integer.MAX_VALUE));
+        // Every link takes at least five bytes
+        int numLinks = readBounded(cursor, (buffer.limit() - cursor[0]) / 5);
+        for (int i = 0; i < numLinks; i++) {
+            String assoc = strings[readBounded(cursor, strings.length - 1)];
+            if (cursor[0] >= buffer.limit()) {
+                throw corrupt();
+            }
+            byte collectionFlag = buffer.get(cursor[0]++);
+            if (collectionFlag != 0 && collectionFlag != 1) {
+                throw corrupt();
+            }
+            long accessed = readVarLong(cursor);
+            long total = readVarLong(cursor);
+            long elements = readVarLong(cursor);
+            if (accessed < 0 || total < accessed || elements < 0) {
+                throw corrupt();
+            }
+            TraversalProfile.TraversalProfileLink link = tp.getOrAddSubProfile(assoc, collectionFlag == 1);
+            link.stats.restore(accessed, total, elements);
+            readProfile(link.profile, cursor);
+        }
+    }
+
+    /**
+     * Reads a varint which must be between 0 and max.
+     */
+    private int readBounded(int[] cursor, int max) throws IOException {
+        long value = readVarLong(cursor);
+        if (value < 0 || value > max) {
+            throw corrupt();
+        }
+        return (int) value;
+    }
+
+    private long readVarLong(int[] cursor) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (cursor[0] >= buffer.limit() || shift > 63) {
+                throw corrupt();
+            }
+            b = buffer.get(cursor[0]++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private int readInt(int pos) throws IOException {
+        if (pos > buffer.limit() - 4) {
+            throw corrupt();
+        }
+        return buffer.getInt(pos);
+    }
+
+    private IOException corrupt() {
+        return new IOException(file + " is truncated or corrupt");
+    }
+
+    /**
+     * Writes profiles in the snapshot format.
+     *
+     * @param out stream to write to, not closed
+     * @param entries profiles to write
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(OutputStream out, List<Entry> entries) throws IOException {
+        List<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.fingerprint < e2.fingerprint ? -1 : (e1.fingerprint == e2.fingerprint ? 0 : 1);
+            }
+        });
+
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        int[] queryIdxs = new int[sorted.size()];
+        int[] offsets = new int[sorted.size()];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < sorted.size(); i++) {
+            Entry entry = sorted.get(i);
+            queryIdxs[i] = stringIndex(entry.queryId, strings, stringIndexes);
+            offsets[i] = data.size();
+            writeProfile(data, entry.profile, strings, stringIndexes);
+        }
+
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeInt(FORMAT_VERSION);
+        dout.writeInt(strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(UTF8);
+            writeVarLong(dout, bytes.length);
+            dout.write(bytes);
+        }
+        dout.writeInt(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            dout.writeLong(sorted.get(i).fingerprint);
+            dout.writeInt(queryIdxs[i]);
+            dout.writeInt(offsets[i]);
+        }
+        data.writeTo(dout);
+        dout.flush();
+    }
+
+    private static void writeProfile(OutputStream out, TraversalProfile tp, List<String> strings,
+                                     Map<String, Integer> stringIndexes) throws IOException {
+        TraversalProfile.TraversalProfileLink[] links = tp.getLinks();
+        writeVarLong(out, tp.getWidth());
+        writeVarLong(out, links.length);
+        for (TraversalProfile.TraversalProfileLink link : links) {
+            writeVarLong(out, stringIndex(link.assoc, strings, stringIndexes));
+            out.write(link.collection ? 1 : 0);
+            // The counters are not read atomically, make sure accesses do not exceed the total
+            long accessed = link.stats.getAccessed();
+            writeVarLong(out, accessed);
+            writeVarLong(out, Math.max(accessed, link.stats.getTotal()));
+            writeVarLong(out, link.stats.getElements());
+            writeProfile(out, link.profile, strings, stringIndexes);
+        }
+    }
+
+    private static int stringIndex(String s, List<String> strings, Map<String, Integer> stringIndexes) {
+        Integer idx = stringIndexes.get(s);
+        if (idx == null) {
+            idx = strings.size();
+            strings.add(s);
+            stringIndexes.put(s, idx);
+        }
+        return idx;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Saves the traversal profiles of an extent manager to a local file and
+ * restores them from it, so that prefetching does not start from scratch
+ * after a restart. Failures are logged rather than thrown, because losing
+ * profiles only costs performance.
+ *
+ * @see AutofetchSettings#SNAPSHOT_FILE
+ */
+final class ProfileSnapshotStore {
+
+    private static final Log log = LogFactory.getLog(ProfileSnapshotStore.class);
+
+    private final File file;
+
+    private final ExtentManager extentManager;
+
+    ProfileSnapshotStore(File file, ExtentManager extentManager) {
+        this.file = file;
+        this.extentManager = extentManager;
+    }
+
+    /**
+     * Makes the profiles of the snapshot file available, if there is one.
+     * Profiles are decoded lazily, see {@link ExtentManager#mapProfiles(File)}.
+     *
+     * @return number of profiles available
+     */
+    int load() {
+        if (!file.isFile()) {
+            return 0;
+        }
+        try {
+            int numProfiles = extentManager.mapProfiles(file);
+            if (log.isDebugEnabled()) {
+                log.debug("Mapped " + numProfiles + " traversal profiles from " + file);
+            }
+            return numProfiles;
+        } catch (IOException e) {
+            log.warn("Could not restore traversal profiles from " + file, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Writes all profiles to the snapshot file. The file is replaced
+     * atomically, so a crash while writing leaves the previous snapshot, and
+     * a mapping of the previous snapshot stays valid.
+     */
+    synchronized void save() {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            int numProfiles;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+                numProfiles = extentManager.writeProfiles(out);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (log.isDebugEnabled()) {
+                log.debug("Saved " + numProfiles + " traversal profiles to " + file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not save traversal profiles to " + file, e);
+        }
+    }
+}
@@ -16,29 +16,37 @@
 package org.autofetch.hibernate;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
 
 /**
  * Represents the program state based on which we make decisions about which
  * extent to use with a query. This class is immutable.
- * 
+ * <p>
+ * A program stack is identified by a 64-bit fingerprint of the class, method
+ * and line number of its application frames. The frames themselves are kept
+ * only when the stack was captured with them, e.g. for debugging; two stacks
+ * where either side has no frames are compared by fingerprint alone.
+ *
  * @author aibrahim
  */
 public class ProgramStack implements Serializable {
 
-    private static final int MAX_STACK_FRAMES = 20;
+    static final int MAX_STACK_FRAMES = 20;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long fingerprint;
 
-    private List<StackTraceElement> m_stacktrace;
+    private final StackTraceElement[] frames;
 
     /**
      * Builds program state based on the stack trace it is given. The maximum
      * number of stack frames we will keep track of is given by
      * MAX_STACK_FRAMES. If there are more than the maximum number of stack
      * frames we take only the first MAX_STACK_FRAMES from the stack trace.
-     * 
+     *
      * @param stacktrace
      */
     public ProgramStack(StackTraceElement[] stacktrace) {
@@ -50,29 +58,21 @@ public class ProgramStack implements Serializable {
                     "Stracktrace must have at least one element");
         }
 
-        m_stacktrace = new ArrayList<StackTraceElement>(
-                Arrays.asList(stacktrace));
-        
-        // Filter out hibernate, autofetch, and native stack frames
-        Iterator<StackTraceElement> stIter = m_stacktrace.iterator();
-        while (stIter.hasNext()) {
-            StackTraceElement ste = stIter.next();
-            boolean hibernateCoreMethod = 
-                ste.getClassName().startsWith("org.hibernate.") &&
-                    !ste.getClassName().startsWith("org.hibernate.test.");
-            boolean autofetchCoreMethod = 
-                ste.getClassName().startsWith("org.autofetch.") &&
-                    !ste.getClassName().startsWith("org.autofetch.test.");
-            if (hibernateCoreMethod || autofetchCoreMethod ||
-                    ste.isNativeMethod()) {
-                stIter.remove(); // Why delete native method?
+        // Filter out hibernate, autofetch, and native stack frames and
+        // truncate to max stack frames in a single pass
+        StackTraceElement[] kept = new StackTraceElement[Math.min(stacktrace.length, MAX_STACK_FRAMES)];
+        int numKept = 0;
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < stacktrace.length && numKept < MAX_STACK_FRAMES; i++) {
+            StackTraceElement ste = stacktrace[i];
+            if (isApplicationFrame(ste)) {
+                kept[numKept++] = ste;
+                hash = addFrame(hash, ste);
             }
         }
-        
-        // Truncate stacktrace to max stack frames
-        if (m_stacktrace.size() > MAX_STACK_FRAMES) {
-            m_stacktrace = m_stacktrace.subList(0, MAX_STACK_FRAMES);
-        }
+
+        this.fingerprint = hash;
+        this.frames = numKept == kept.length ? kept : Arrays.copyOf(kept, numKept);
     }
 
     /**
@@ -83,34 +83,118 @@ public class ProgramStack implements Serializable {
         this(Thread.currentThread().getStackTrace());
     }
 
+    /**
+     * Builds program state which only consists of a fingerprint.
+     *
+     * @param fingerprint fingerprint as returned by {@link #getFingerprint()}
+     */
+    public ProgramStack(long fingerprint) {
+        this.fingerprint = fingerprint;
+        this.frames = null;
+    }
+
+    /**
+     * Computes the fingerprint of at most maxFrames application frames of the
+     * given stack trace without retaining any of them.
+     *
+     * @param stacktrace stack trace to fingerprint
+     * @param maxFrames  maximum number of application frames to take into account
+     * @return fingerprint of the stack trace
+     */
+    static long fingerprint(StackTraceElement[] stacktrace, int maxFrames) {
+        long hash = FNV_OFFSET_BASIS;
+        int numFrames = 0;
+        for (int i = 0; i < stacktrace.length && numFrames < maxFrames; i++) {
+            StackTraceElement ste = stacktrace[i];
+            if (isApplicationFrame(ste)) {
+                hash = addFrame(hash, ste);
+                numFrames++;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return whether the frame belongs to the application, as opposed to
+     * hibernate, autofetch, or native code.
+     */
+    static boolean isApplicationFrame(StackTraceElement ste) {
+        if (ste.isNativeMethod()) {
+            return false; // Why delete native method?
+        }
+        return !isFrameworkClass(ste.getClassName());
+    }
+
+    /**
+     * @return whether the class belongs to hibernate or autofetch, excluding
+     * their tests
+     */
+    static boolean isFrameworkClass(String className) {
+        boolean hibernateCoreMethod =
+                className.startsWith("org.hibernate.") &&
+                        !className.startsWith("org.hibernate.test.");
+        boolean autofetchCoreMethod =
+                className.startsWith("org.autofetch.") &&
+                        !className.startsWith("org.autofetch.test.");
+        return hibernateCoreMethod || autofetchCoreMethod;
+    }
+
+    /**
+     * Mixes class, method and line number of a frame into a FNV-1a style
+     * rolling hash. Only uses String.hashCode, which is cached per string and
+     * stable across JVMs.
+     */
+    private static long addFrame(long hash, StackTraceElement ste) {
+        hash = (hash ^ ste.getClassName().hashCode()) * FNV_PRIME;
+        hash = (hash ^ ste.getMethodName().hashCode()) * FNV_PRIME;
+        hash = (hash ^ ste.getLineNumber()) * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * @return 64-bit fingerprint of the application frames
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
     /**
      * Creates string representation of program state.
-     * 
+     *
      * @see java.lang.Object#toString()
      */
     @Override
     public String toString() {
-       return m_stacktrace.toString();
+        if (frames == null) {
+            return "#" + Long.toHexString(fingerprint);
+        }
+        return Arrays.toString(frames);
     }
 
     /**
      * Returns whether this object is equal to another.
-     * 
+     *
      * @see java.lang.Object#equals(java.lang.Object)
      */
     @Override
     public boolean equals(Object o) {
-        return (o instanceof ProgramStack)
-                && (((ProgramStack)o).m_stacktrace.equals(this.m_stacktrace));
+        if (!(o instanceof ProgramStack)) {
+            return false;
+        }
+        ProgramStack other = (ProgramStack) o;
+        if (fingerprint != other.fingerprint) {
+            return false;
+        }
+        return frames == null || other.frames == null || Arrays.equals(frames, other.frames);
     }
 
     /**
      * Returns hashCode.
-     * 
+     *
      * @see java.lang.Object#hashCode()
      */
     @Override
     public int hashCode() {
-        return m_stacktrace.hashCode();
+        return (int) (fingerprint ^ (fingerprint >>> 32));
     }
 }
@@ -14,10 +14,17 @@
  */
 package org.autofetch.hibernate;
 
+import org.hibernate.MappingException;
+import org.hibernate.property.Getter;
+
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
- * Immutable.
+ * Immutable. Holds the Hibernate getters leading to the property, so its
+ * value can be read without looking up a method on every access. A property
+ * of a component is named by its path from the entity, e.g. "address.owner",
+ * and read through the getter of each component along the way.
  *
  * @author Ali Ibrahim <aibrahim@cs.utexas.edu>
  */
@@ -27,13 +34,56 @@ public class Property implements Serializable {
 
     private final boolean collection;
 
-    public Property(org.hibernate.mapping.Property property) {
+    // Null if the property cannot be read from the mapped class
+    private final Getter[] getters;
+
+    public Property(org.hibernate.mapping.Property property, Class<?> mappedClass) {
+        this(property, mappedClass, null);
+    }
+
+    /**
+     * @param property   mapped property
+     * @param ownerClass class declaring the property
+     * @param component  property of the component declaring the property, or
+     *                   null if the property belongs to the entity
+     */
+    Property(org.hibernate.mapping.Property property, Class<?> ownerClass, Property component) {
         if (property == null) {
             throw new NullPointerException("property name cannot be null");
         }
 
-        this.name = property.getName();
+        this.name = component == null ? property.getName() : component.name + "." + property.getName();
         this.collection = property.getType().isCollectionType();
+        Getter[] g;
+        try {
+            Getter getter = property.getGetter(ownerClass);
+            if (component == null) {
+                g = new Getter[]{getter};
+            } else if (component.getters == null) {
+                g = null;
+            } else {
+                g = Arrays.copyOf(component.getters, component.getters.length + 1);
+                g[g.length - 1] = getter;
+            }
+        } catch (MappingException e) {
+            g = null; // Weird property, just ignore it.
+        }
+        this.getters = g;
+    }
+
+    /**
+     * @param entity entity to read the property of
+     * @return value of the property, or null if it cannot be read
+     */
+    public Object getValue(Object entity) {
+        if (getters == null) {
+            return null;
+        }
+        Object value = entity;
+        for (int i = 0; i < getters.length && value != null; i++) {
+            value = getters[i].get(value);
+        }
+        return value;
     }
 
     public boolean isCollection() {
@@ -0,0 +1,77 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.hibernate.Query;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the settings made on a query, such as parameters, so that they can
+ * be applied to another query later on. Settings are recorded by calling the
+ * setters of the query returned by {@link #getRecorder()}.
+ */
+final class QuerySettings implements InvocationHandler {
+
+    private final Query recorder = (Query) Proxy.newProxyInstance(Query.class.getClassLoader(),
+            new Class<?>[]{Query.class}, this);
+
+    private final List<Method> methods = new ArrayList<>();
+
+    private final List<Object[]> arguments = new ArrayList<>();
+
+    /**
+     * @return query whose setters record the settings, its other methods must
+     * not be called
+     */
+    Query getRecorder() {
+        return recorder;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getReturnType() != Query.class) {
+            throw new UnsupportedOperationException(method.getName());
+        }
+        methods.add(method);
+        arguments.add(args);
+        return proxy;
+    }
+
+    /**
+     * Makes the recorded settings on a query, in the order they were made.
+     */
+    void applyTo(Query query) {
+        for (int i = 0; i < methods.size(); i++) {
+            try {
+                methods.get(i).invoke(query, arguments.get(i));
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
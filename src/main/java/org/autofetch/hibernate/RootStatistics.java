@@ -0,0 +1,64 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Statistics of a single root object loaded by a query, which only serve
+ * to extend the traversal profile from it. A root is loaded and accessed by
+ * one thread, and its counts are not part of any prefetch plan, so it counts
+ * with plain fields instead of striped counters.
+ */
+final class RootStatistics extends Statistics {
+
+    private static final long serialVersionUID = 1L;
+
+    private long total;
+
+    private long accessed;
+
+    private long elements;
+
+    RootStatistics(TraversalProfile node) {
+        super(node, false);
+    }
+
+    @Override
+    public void incrementTotal(int amt) {
+        total += amt;
+    }
+
+    @Override
+    public void loadedAssociation() {
+        accessed++;
+    }
+
+    @Override
+    public void loadedElements(int size) {
+        elements += size;
+    }
+
+    @Override
+    public long getAccessed() {
+        return accessed;
+    }
+
+    @Override
+    public long getElements() {
+        return elements;
+    }
+
+    @Override
+    public long getTotal() {
+        return total;
+    }
+}
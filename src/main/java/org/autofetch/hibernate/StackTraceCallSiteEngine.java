@@ -0,0 +1,36 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Identifies call sites by their application stack frames, which are kept in
+ * the resulting {@link ProgramStack} so that profiles can be printed with
+ * their full call site. This is the default engine.
+ * <p>
+ * Where {@code java.lang.StackWalker} is available only the frames kept by
+ * the program stack are walked; on Java 7 the whole stack trace is captured.
+ */
+public class StackTraceCallSiteEngine implements CallSiteEngine {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public ProgramStack currentProgramStack() {
+        StackTraceElement[] frames = ApplicationStackWalker.applicationFrames(ProgramStack.MAX_STACK_FRAMES);
+        if (frames == null || frames.length == 0) {
+            // Cheaper than Thread.getStackTrace(), which does the same after a few checks.
+            frames = new Throwable().getStackTrace();
+        }
+        return new ProgramStack(frames);
+    }
+}
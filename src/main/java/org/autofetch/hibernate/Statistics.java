@@ -16,6 +16,7 @@
 package org.autofetch.hibernate;
 
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class which contains statisitics about the loading of a query association
@@ -24,89 +25,237 @@ import java.io.Serializable;
  */
 public class Statistics implements Serializable {
 
-    private long total;
+    private static final long serialVersionUID = 1L;
+
+    // Updated by every thread which tracks this association, hence striped.
+    // Null for the trackers of single roots, which count on their own.
+    private final StripedCounter total;
+
+    private final StripedCounter accessed;
+
+    // Elements of the accessed instances, for collection associations
+    private final StripedCounter elements;
 
-    private long accessed;
-    
     private TraversalProfile profileNode;
 
+    private TraversalProfile root;
+
+    // Range of the access percentage within which the cached prefetch plan
+    // of the root stays valid
+    private volatile PlanBounds planBounds;
+
     /**
      * Default constructor. Initializes total and loaded to 0.
      */
     public Statistics(TraversalProfile node) {
-        total = 0;
-        accessed = 0;
+        this(node, true);
+    }
+
+    /**
+     * @param striped whether the statistics are shared between threads and
+     *                need striped counters
+     */
+    Statistics(TraversalProfile node, boolean striped) {
         this.profileNode = node;
+        this.root = node.getRoot();
+        this.total = striped ? new StripedCounter() : null;
+        this.accessed = striped ? new StripedCounter() : null;
+        this.elements = striped ? new StripedCounter() : null;
     }
 
     private static final long MAX_TOTAL = Long.MAX_VALUE - Integer.MAX_VALUE;
 
+    // When updates are contended, only one in this many reads the counters
+    // afterwards, because summing them touches every cell
+    private static final int CONTENDED_CHECK_INTERVAL = 16;
+
     /**
      * Increments the total amount times this association
      * has been instantiated.
      * 
      * @param amt
      */
-	 
-    public synchronized void incrementTotal(int amt) { // this should be possible to do more elegantly
-        // Protect against overflow, a little bit of a hack because
-        // we are arbitrarily discounting statistics when
-        // the total grows too large.
-        if (total > MAX_TOTAL) {
-            total = (long) Math.ceil(total / 2.0);
-            amt /= 2;
+    public void incrementTotal(int amt) {
+        if (isSampled(total.add(amt))) {
+            // Protect against overflow, a little bit of a hack because
+            // we are arbitrarily discounting statistics when
+            // the total grows too large.
+            if (getTotal() > MAX_TOTAL) {
+                halve();
+            }
+            checkPrefetchPlan();
         }
-        total += amt;
     }
 
     /**
      * Call this method when an association is accessed for the first time.
-     * Should not be called twice for a specific instance of an association.
+     * Should not be called twice for a specific instance of an association,
+     * nor before the total was incremented for that instance.
+     */
+    public void loadedAssociation() {
+        if (isSampled(accessed.add(1))) {
+            checkPrefetchPlan();
+        }
+    }
+
+    /**
+     * Call this method along with {@link #loadedAssociation()} when a
+     * collection association is accessed, to record its size.
+     *
+     * @param size number of elements of the collection
+     */
+    public void loadedElements(int size) {
+        if (isSampled(elements.add(size))) {
+            checkPrefetchPlan();
+        }
+    }
+
+    /**
+     * @return whether an update should be followed by the checks which read
+     * the counters
+     */
+    private static boolean isSampled(boolean contended) {
+        return !contended || ThreadLocalRandom.current().nextInt(CONTENDED_CHECK_INTERVAL) == 0;
+    }
+
+    /**
+     * Adds counts restored from a snapshot of the statistics.
      */
-    public synchronized void loadedAssociation() {
-        accessed++;
+    void restore(long accessed, long total, long elements) {
+        this.total.add(total);
+        this.accessed.add(accessed);
+        this.elements.add(elements);
+    }
 
-        // Sanity check: number of accesses should be <= total
-        if (accessed > total) {
-            throw new IllegalStateException("accesses " + accessed
-                    + " greater than total " + total);
+    private synchronized void halve() {
+        if (getTotal() > MAX_TOTAL) {
+            total.scale(0.5);
+            accessed.scale(0.5);
+            elements.scale(0.5);
+        }
+    }
+
+    /**
+     * Scales all counts down by the same factor, so that updates from now on
+     * weigh more than the ones before. Counts are rounded down, hence the
+     * counts of an association which is no longer traversed fade to zero.
+     * Scaling keeps the access percentage, except for rounding, which may
+     * move it out of the bounds of the prefetch plan.
+     *
+     * @param factor factor between 0 and 1
+     * @return whether a count dropped to zero, so that the prefetch plan
+     * must be recomputed although no bounds may have been left
+     */
+    synchronized boolean decay(double factor) {
+        boolean wasTotal = total.sum() > 0;
+        boolean wasAccessed = accessed.sum() > 0;
+        total.scale(factor);
+        accessed.scale(factor);
+        elements.scale(factor);
+        // Rounding may leave accessed one above total, which snapshots reject
+        long excess = accessed.sum() - total.sum();
+        if (excess > 0) {
+            accessed.add(-excess);
+        }
+        checkPrefetchPlan();
+        return (wasTotal && total.sum() == 0) || (wasAccessed && accessed.sum() == 0);
+    }
+
+    /**
+     * Records the ranges of the access percentage and of the average size
+     * within which the prefetch plan with the given version is valid. The
+     * plan is invalidated right away if either has already left its range.
+     *
+     * @param version plan version of the root profile
+     * @param low lowest access percentage for which the plan holds
+     * @param high highest access percentage for which the plan holds
+     * @param minSize lowest average collection size for which the plan holds
+     * @param maxSize highest average collection size for which the plan holds
+     */
+    void setPlanBounds(int version, double low, double high, double minSize, double maxSize) {
+        planBounds = new PlanBounds(version, low, high, minSize, maxSize);
+        checkPrefetchPlan();
+    }
+
+    private void checkPrefetchPlan() {
+        PlanBounds bounds = planBounds;
+        if (bounds != null && bounds.version == root.getPlanVersion()) {
+            double percentage = accessPercentage();
+            double size = averageSize();
+            if (percentage < bounds.low || percentage > bounds.high
+                    || size < bounds.minSize || size > bounds.maxSize) {
+                root.invalidatePrefetchPlan();
+            }
         }
     }
 
     /**
      * @return The percentage of time the association is accessed.
      */
-	 
-	 
-	 
-	 
-	 
     public double accessPercentage() {
-        return (double) accessed / (double) total;
+        return (double) getAccessed() / (double) getTotal();
+    }
+
+    /**
+     * @return The average number of elements of the accessed instances of a
+     * collection association, NaN if none was accessed yet.
+     */
+    public double averageSize() {
+        return (double) getElements() / (double) getAccessed();
     }
 
     /**
      * @return Return accessed
      */
     public long getAccessed() {
-        return accessed;
+        return accessed.sum();
+    }
+
+    /**
+     * @return Returns the number of elements of the accessed instances
+     */
+    public long getElements() {
+        return elements.sum();
     }
 
     /**
      * @return Returns the total.
      */
     public long getTotal() {
-        return total;
+        return total.sum();
     }
 
     /**
      * @see java.lang.Object#toString()
      */
     public String toString() {
-        return accessed + " / " + total;
+        return getAccessed() + " / " + getTotal();
     }
 
     public TraversalProfile getProfileNode() {
         return profileNode;
     }
+
+    private static final class PlanBounds implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int version;
+
+        private final double low;
+
+        private final double high;
+
+        private final double minSize;
+
+        private final double maxSize;
+
+        PlanBounds(int version, double low, double high, double minSize, double maxSize) {
+            this.version = version;
+            this.low = low;
+            this.high = high;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+    }
 }
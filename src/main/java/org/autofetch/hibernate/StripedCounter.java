@@ -0,0 +1,137 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which stays cheap to update when many threads update it at once.
+ * Updates go to a single base value until two threads collide on it; from then
+ * on colliding threads are spread over a set of cells, each on its own cache
+ * line. Reads add up the base and all cells, so they are more expensive than
+ * updates and not atomic with respect to concurrent updates.
+ */
+class StripedCounter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Longs between two cells, so that each cell has its own cache line(s)
+    private static final int PAD = 16;
+
+    private static final int NUM_CELLS = numCells(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLong base = new AtomicLong();
+
+    private volatile AtomicLongArray cells;
+
+    // Fraction below one left over by scaling, carried into the next scale
+    // so that repeated scaling does not round counts up or down for good
+    private double remainder;
+
+    /**
+     * Adds to the counter.
+     *
+     * @param amt amount to add
+     * @return whether the update was contended, i.e. went to a cell
+     */
+    boolean add(long amt) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            long v = base.get();
+            if (base.compareAndSet(v, v + amt)) {
+                return false;
+            }
+            cs = getOrCreateCells();
+        }
+        cs.addAndGet(cellIndex(), amt);
+        return true;
+    }
+
+    /**
+     * @return current value of the counter
+     */
+    long sum() {
+        long sum = base.get();
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += PAD) {
+                sum += cs.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Scales the counter by the given factor. The value is rounded down and
+     * the fraction kept for the next scale, so scaling alone drives the
+     * counter to zero while the value it would have without rounding is
+     * within one of it. Updates which happen at the same time may or may not
+     * be scaled.
+     *
+     * @param factor factor between 0 and 1
+     */
+    synchronized void scale(double factor) {
+        long sum = base.getAndSet(0);
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += PAD) {
+                sum += cs.getAndSet(i, 0);
+            }
+        }
+        double scaled = (sum + remainder) * factor;
+        long floor = (long) scaled;
+        remainder = scaled - floor;
+        base.addAndGet(floor);
+    }
+
+    private synchronized AtomicLongArray getOrCreateCells() {
+        if (cells == null) {
+            cells = new AtomicLongArray(NUM_CELLS * PAD);
+        }
+        return cells;
+    }
+
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        // Spread sequential thread ids
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return (h & (NUM_CELLS - 1)) * PAD;
+    }
+
+    /**
+     * @return power of two at least the number of processors, and at most 64
+     */
+    private static int numCells(int processors) {
+        int n = 2;
+        while (n < processors && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Serializes the current value without the cells.
+     */
+    private Object writeReplace() {
+        StripedCounter replacement = new StripedCounter();
+        replacement.base.set(sum());
+        return replacement;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads collections which the prefetch strategy decided to fetch with a
+ * separate query, right after the query for their root objects. Joining
+ * more than one collection into a query would multiply their rows, so each
+ * collection path gets a follow-up query instead, which join fetches the
+ * collection for all its owners by id.
+ */
+final class SubselectFetcher {
+
+    private static final Log log = LogFactory.getLog(SubselectFetcher.class);
+
+    // Keeps the in lists of follow-up queries within what databases accept
+    static final int MAX_IDS_PER_QUERY = 1000;
+
+    private SubselectFetcher() {
+    }
+
+    /**
+     * Initializes the collections at the given paths of the root objects.
+     * The paths leading to the collections are only followed as far as they
+     * are loaded already. Issues at least one query per path which leads to
+     * uninitialized collections.
+     *
+     * @param session session the roots belong to
+     * @param roots   root objects, may contain nulls and duplicates
+     * @param paths   paths of collections, relative to the roots
+     */
+    static void fetch(Session session, Collection<?> roots, List<Path> paths) {
+        if (paths.isEmpty() || roots.isEmpty()) {
+            return;
+        }
+        ExtentManager extentManager = ((SessionFactoryImplementor) session.getSessionFactory()).getServiceRegistry()
+                .getService(AutofetchService.class).getExtentManager();
+        for (Path path : paths) {
+            List<String> traversals = path.traversals();
+            Collection<?> owners = roots;
+            for (String traversal : traversals.subList(0, traversals.size() - 1)) {
+                owners = getLoadedValues(session, extentManager, owners, traversal);
+            }
+            fetch(session, extentManager, owners, traversals.get(traversals.size() - 1));
+        }
+    }
+
+    /**
+     * @return loaded entities referenced by the property of the objects,
+     * including the elements of collections
+     */
+    private static Collection<?> getLoadedValues(Session session, ExtentManager extentManager,
+            Collection<?> objects, String property) {
+        Set<Object> values = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Object o : objects) {
+            Object value = getPropertyValue(session, extentManager, o, property);
+            if (value == null || !Hibernate.isInitialized(value)) {
+                continue;
+            }
+            if (value instanceof Collection) {
+                // Following prefetched paths is not an access by the application
+                boolean oldTracking = value instanceof Trackable && ((Trackable) value).disableTracking();
+                values.addAll((Collection<?>) value);
+                if (oldTracking) {
+                    ((Trackable) value).enableTracking();
+                }
+            } else {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private static void fetch(Session session, ExtentManager extentManager, Collection<?> owners,
+            String collection) {
+        // Owners may be of several entities, which get a query each
+        Map<String, List<Serializable>> ids = new LinkedHashMap<>();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Object owner : owners) {
+            if (owner == null || !seen.add(owner)) {
+                continue;
+            }
+            Object value = getPropertyValue(session, extentManager, owner, collection);
+            if (value == null || Hibernate.isInitialized(value)) {
+                continue;
+            }
+            String entityName = session.getEntityName(owner);
+            List<Serializable> entityIds = ids.get(entityName);
+            if (entityIds == null) {
+                entityIds = new ArrayList<>();
+                ids.put(entityName, entityIds);
+            }
+            entityIds.add(session.getIdentifier(owner));
+        }
+
+        List<Path> paths = Collections.singletonList(new Path().addTraversal(collection));
+        for (Map.Entry<String, List<Serializable>> entry : ids.entrySet()) {
+            String queryStr = AutofetchLoadListener.buildQueryString(paths, entry.getKey(), true);
+            List<Serializable> entityIds = entry.getValue();
+            if (log.isDebugEnabled()) {
+                log.debug("Subselect fetch of " + entry.getKey() + "." + collection + " for "
+                        + entityIds.size() + " owners");
+            }
+            for (int i = 0; i < entityIds.size(); i += MAX_IDS_PER_QUERY) {
+                List<Serializable> chunk = entityIds.subList(i, Math.min(i + MAX_IDS_PER_QUERY, entityIds.size()));
+                AutofetchLoadListener.getResults(queryStr, chunk.toArray(new Serializable[chunk.size()]), session);
+            }
+        }
+    }
+
+    /**
+     * @return value of a property of a loaded entity, or null if it is not
+     * loaded or has no such association. Associations of components are
+     * named by their path, e.g. "address.owner", and read through the
+     * component.
+     */
+    private static Object getPropertyValue(Session session, ExtentManager extentManager, Object o,
+            String property) {
+        if (o instanceof HibernateProxy) {
+            HibernateProxy proxy = (HibernateProxy) o;
+            if (proxy.getHibernateLazyInitializer().isUninitialized()) {
+                return null;
+            }
+            o = proxy.getHibernateLazyInitializer().getImplementation();
+        }
+        if (o == null || !session.contains(o)) {
+            return null;
+        }
+        EntityMetadata metadata = extentManager.getEntityMetadata(session.getEntityName(o));
+        Property association = metadata == null ? null : metadata.getAssociation(property);
+        if (association == null) {
+            return null;
+        }
+        // Getters of tracked entities would count as accesses otherwise
+        Trackable trackable = Trackables.asTrackable(o);
+        boolean oldTracking = trackable != null && trackable.disableTracking();
+        try {
+            return association.getValue(o);
+        } finally {
+            if (oldTracking) {
+                trackable.enableTracking();
+            }
+        }
+    }
+}
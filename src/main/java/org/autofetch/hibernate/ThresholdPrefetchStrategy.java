@@ -0,0 +1,35 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+/**
+ * Prefetches every association which is accessed with a probability above
+ * the fetch parameter. Associations are join fetched, except for a second
+ * collection among siblings, which would multiply the rows of the first one
+ * and is fetched by a subselect instead. This is the default strategy.
+ */
+public class ThresholdPrefetchStrategy implements PrefetchStrategy {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Decision decide(Association assoc) {
+        double fetchParam = assoc.getFetchParam();
+        if (assoc.getProbability() > fetchParam) {
+            PrefetchMode mode = assoc.isCollection() && assoc.isCollectionJoined()
+                    ? PrefetchMode.SUBSELECT : PrefetchMode.JOIN;
+            return new Decision(mode, fetchParam, Double.POSITIVE_INFINITY);
+        }
+        return new Decision(PrefetchMode.NONE, Double.NEGATIVE_INFINITY, fetchParam);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
+import org.hibernate.engine.spi.PersistentAttributeInterceptor;
+
+/**
+ * Finds how an object is tracked. Entities are either javassist proxies
+ * which implement TrackableEntity themselves, or classes enhanced at build
+ * time whose attribute interceptor does the tracking.
+ */
+public final class Trackables {
+
+    private Trackables() {
+    }
+
+    /**
+     * @param o any object
+     * @return tracking of the object, or null if it is not tracked
+     */
+    public static Trackable asTrackable(Object o) {
+        if (o instanceof Trackable) {
+            return (Trackable) o;
+        }
+        return getInterceptor(o);
+    }
+
+    /**
+     * @param o any object
+     * @return tracking of the entity, or null if it is not a tracked entity
+     */
+    public static TrackableEntity asTrackableEntity(Object o) {
+        if (o instanceof TrackableEntity) {
+            return (TrackableEntity) o;
+        }
+        return getInterceptor(o);
+    }
+
+    private static AutofetchAttributeInterceptor getInterceptor(Object o) {
+        if (o instanceof PersistentAttributeInterceptable) {
+            PersistentAttributeInterceptor interceptor = ((PersistentAttributeInterceptable) o).$$_hibernate_getInterceptor();
+            if (interceptor instanceof AutofetchAttributeInterceptor) {
+                return (AutofetchAttributeInterceptor) interceptor;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * This file is part of Autofetch.
+ * Autofetch is free software: you can redistribute it and/or modify
+ * it under the terms of the Lesser GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version. Autofetch is distributed in the
+ * hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE.  See the Lesser GNU General Public License for more details. You
+ * should have received a copy of the Lesser GNU General Public License along
+ * with Autofetch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.autofetch.hibernate;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact set of trackers, compared by identity. Entities and collections
+ * almost always have one or two trackers, which are kept inline; further
+ * trackers spill into an array. Costs a few words instead of a hash table
+ * per tracked object.
+ */
+final class TrackerSet extends AbstractSet<Statistics> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INLINE_SLOTS = 2;
+
+    private Statistics first;
+
+    private Statistics second;
+
+    // Trackers beyond the inline slots, null until needed
+    private Statistics[] more;
+
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public boolean add(Statistics tracker) {
+        if (indexOf(tracker) >= 0) {
+            return false;
+        }
+        if (size == 0) {
+            first = tracker;
+        } else if (size == 1) {
+            second = tracker;
+        } else {
+            int i = size - INLINE_SLOTS;
+            if (more == null) {
+                more = new Statistics[2];
+            } else if (i == more.length) {
+                more = Arrays.copyOf(more, more.length * 2);
+            }
+            more[i] = tracker;
+        }
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int i = indexOf(o);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        first = null;
+        second = null;
+        more = null;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Statistics> iterator() {
+        return new Iterator<Statistics>() {
+
+            private int next;
+
+            private boolean removable;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Statistics next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                removable = true;
+                return get(next++);
+            }
+
+            @Override
+            public void remove() {
+                if (!removable) {
+                    throw new IllegalStateException();
+                }
+                removable = false;
+                removeAt(--next);
+            }
+        };
+    }
+
+    private int indexOf(Object o) {
+        for (int i = 0; i < size; i++) {
+            if (get(i) == o) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Statistics get(int i) {
+        switch (i) {
+            case 0:
+                return first;
+            case 1:
+                return second;
+            default:
+                return more[i - INLINE_SLOTS];
+        }
+    }
+
+    private void set(int i, Statistics tracker) {
+        switch (i) {
+            case 0:
+                first = tracker;
+                break;
+            case 1:
+                second = tracker;
+                break;
+            default:
+                more[i - INLINE_SLOTS] = tracker;
+        }
+    }
+
+    /**
+     * Removes the tracker at an index by shifting the following ones down,
+     * which keeps iteration order stable.
+     */
+    private void removeAt(int index) {
+        for (int i = index; i < size - 1; i++) {
+            set(i, get(i + 1));
+        }
+        set(size - 1, null);
+        size--;
+    }
+}
@@ -16,9 +16,12 @@
 package org.autofetch.hibernate;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A node in a traversal profile.
@@ -29,25 +32,63 @@ public class TraversalProfile implements Serializable {
 
     public static class TraversalProfileLink implements Serializable {
 
+        protected String assoc;
+
         protected TraversalProfile profile;
 
         protected Statistics stats;
 
         protected boolean collection;
 
-        public TraversalProfileLink(TraversalProfile profile, boolean collection) {
+        public TraversalProfileLink(String assoc, TraversalProfile profile, boolean collection) {
+            this.assoc = assoc;
             this.profile = profile;
             this.stats = new Statistics(profile);
             this.collection = collection;
         }
     }
 
-    private Map<String, TraversalProfileLink> subProfiles;
+    private static final TraversalProfileLink[] NO_LINKS = new TraversalProfileLink[0];
+
+    // Copy on write: profiles only have a handful of associations, are read
+    // on every load and rarely grow once warmed up. Writers synchronize on
+    // the profile.
+    private volatile TraversalProfileLink[] subProfiles = NO_LINKS;
 
     private TraversalProfile parent;
 
     private int level;
 
+    // Number of columns of the entities reached through this node, zero
+    // until one of them was tracked
+    private volatile int width;
+
+    // Only used on the root, bumped whenever the cached prefetch plan
+    // may no longer reflect the statistics
+    private final AtomicInteger planVersion = new AtomicInteger();
+
+    private transient volatile PrefetchPlan prefetchPlan;
+
+    // Only used on the root, set when the profile is looked up and cleared
+    // by the eviction clock of the extent manager
+    private transient volatile boolean referenced;
+
+    // Only used on the root, plan version when roots were last sampled and
+    // number of roots loaded since it last changed
+    private transient volatile int sampledVersion;
+
+    private transient AtomicLong stableRoots;
+
+    // Only used on the root, time in milliseconds at which the statistics
+    // were last decayed, zero until they were first looked at
+    private transient volatile long lastDecay;
+
+    // Decay statistics at most this many times per half-life, because each
+    // decay walks the whole profile
+    private static final int DECAYS_PER_HALF_LIFE = 16;
+
+    private static final int WIDTH_TOLERANCE = 2;
+
     /**
      * Default constructor. Constructs a top level traversal profile node.
      */
@@ -63,7 +104,6 @@ public class TraversalProfile implements Serializable {
      */
     public TraversalProfile(TraversalProfile parent) {
         this.parent = parent;
-        this.subProfiles = new HashMap<String, TraversalProfileLink>();
         if (parent == null) {
             level = 0;
         } else {
@@ -71,20 +111,58 @@ public class TraversalProfile implements Serializable {
         }
     }
 
+    /**
+     * @return number of columns of the entities reached through this node,
+     * or zero if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Records the number of columns of an entity reached through this node.
+     * Entities of different subclasses may differ a little in width, so the
+     * recorded width only changes, and the prefetch plan is only recomputed,
+     * when it was unknown or moves by more than a factor of WIDTH_TOLERANCE.
+     */
+    public void recordWidth(int width) {
+        // Avoid writing a shared field on every tracked entity
+        int w = this.width;
+        if (w != width && (w == 0 || width > w * WIDTH_TOLERANCE || w > width * WIDTH_TOLERANCE)) {
+            this.width = width;
+            invalidatePrefetchPlan();
+        }
+    }
+
     public boolean hasSubProfile(String assoc) {
-        return subProfiles.containsKey(assoc);
+        return getLink(assoc) != null;
     }
 
+    /**
+     * @return snapshot of the association names, in the order they were added
+     */
     public Set<String> getAssociations() {
-        return subProfiles.keySet();
+        TraversalProfileLink[] links = subProfiles;
+        Set<String> assocs = new LinkedHashSet<>(links.length * 2);
+        for (TraversalProfileLink link : links) {
+            assocs.add(link.assoc);
+        }
+        return Collections.unmodifiableSet(assocs);
+    }
+
+    /**
+     * @return current links to sub-profiles, must not be modified
+     */
+    TraversalProfileLink[] getLinks() {
+        return subProfiles;
     }
-    
+
     /**
      * @param assoc
      * @return traversal profile
      */
     public TraversalProfile getSubProfile(String assoc) {
-        return subProfiles.get(assoc).profile;
+        return getExistingLink(assoc).profile;
     }
 
     /**
@@ -92,7 +170,7 @@ public class TraversalProfile implements Serializable {
      * @return traversal profile
      */
     public Statistics getSubProfileStats(String assoc) {
-        return subProfiles.get(assoc).stats;
+        return getExistingLink(assoc).stats;
     }
 
     /**
@@ -100,7 +178,40 @@ public class TraversalProfile implements Serializable {
      * @return traversal profile
      */
     public boolean isCollectionAssociation(String assoc) {
-        return subProfiles.get(assoc).collection;
+        return getExistingLink(assoc).collection;
+    }
+
+    /**
+     * @param path path starting at this profile
+     * @return whether any association along the path is a collection
+     */
+    public boolean crossesCollection(Path path) {
+        TraversalProfile node = this;
+        for (String assoc : path.traversals()) {
+            TraversalProfileLink link = node.getExistingLink(assoc);
+            if (link.collection) {
+                return true;
+            }
+            node = link.profile;
+        }
+        return false;
+    }
+
+    private TraversalProfileLink getLink(String assoc) {
+        for (TraversalProfileLink link : subProfiles) {
+            if (link.assoc.equals(assoc)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private TraversalProfileLink getExistingLink(String assoc) {
+        TraversalProfileLink link = getLink(assoc);
+        if (link == null) {
+            throw new IllegalArgumentException("No sub-profile for " + assoc);
+        }
+        return link;
     }
 
     /**
@@ -110,30 +221,184 @@ public class TraversalProfile implements Serializable {
      *            association name
      * @param collection
      *            whether the association is a collection association
-     * @return The newly created sub-profile
+     * @return The newly created sub-profile, or the existing one if another
+     *         thread added it first
      * @throws MaxDepthExceededException
      *             sub-profile cannot be created because it would be too deep.
      */
 	 
     protected TraversalProfile addSubProfile(String assoc, boolean collection) {
-        TraversalProfile subProfile = new TraversalProfile(this);
-        subProfiles
-                .put(assoc, new TraversalProfileLink(subProfile, collection));
-        return subProfile;
+        return getOrAddSubProfile(assoc, collection).profile;
+    }
+
+    /**
+     * Returns the link to the sub-profile for an association, creating it
+     * if it does not exist yet. Atomic, so concurrent callers for the same
+     * association all get the same link.
+     *
+     * @param assoc
+     *            association name
+     * @param collection
+     *            whether the association is a collection association
+     * @return link to the sub-profile
+     */
+    protected TraversalProfileLink getOrAddSubProfile(String assoc, boolean collection) {
+        TraversalProfileLink link = getLink(assoc);
+        if (link != null) {
+            return link;
+        }
+        synchronized (this) {
+            link = getLink(assoc);
+            if (link == null) {
+                TraversalProfileLink[] links = subProfiles;
+                TraversalProfileLink[] newLinks = Arrays.copyOf(links, links.length + 1);
+                link = new TraversalProfileLink(assoc, new TraversalProfile(this), collection);
+                newLinks[links.length] = link;
+                subProfiles = newLinks;
+                invalidatePrefetchPlan();
+            }
+        }
+        return link;
+    }
+
+    /**
+     * @return prefetch plan last computed for this profile, which may be
+     * stale, or null if there is none
+     */
+    protected PrefetchPlan getPrefetchPlan() {
+        return prefetchPlan;
+    }
+
+    protected void setPrefetchPlan(PrefetchPlan prefetchPlan) {
+        this.prefetchPlan = prefetchPlan;
+    }
+
+    /**
+     * @return version which a prefetch plan of this profile must have to be
+     * current
+     */
+    protected int getPlanVersion() {
+        return planVersion.get();
+    }
+
+    /**
+     * Marks the prefetch plan of the whole traversal profile as stale.
+     */
+    protected void invalidatePrefetchPlan() {
+        getRoot().planVersion.incrementAndGet();
+    }
+
+    /**
+     * Records that this profile was looked up.
+     */
+    protected void markReferenced() {
+        // Avoid writing to a shared cache line on every lookup
+        if (!referenced) {
+            referenced = true;
+        }
+    }
+
+    /**
+     * @return whether the profile was looked up since the last call
+     */
+    protected boolean clearReferenced() {
+        if (referenced) {
+            referenced = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether the traversals from a root object loaded with this
+     * top level profile are tracked. All roots are tracked until warmup roots
+     * were loaded without the prefetch plan being invalidated. After that,
+     * only every n-th root is, where n grows with the number of roots loaded
+     * since, so that roughly warmup / n of them are tracked, but never fewer
+     * than minRate of them. Invalidating the plan starts over.
+     *
+     * @param minRate fraction of roots tracked once the statistics are stable
+     * @param warmup  number of roots tracked after the statistics changed
+     * @return whether to track the root
+     */
+    protected boolean sampleRoot(double minRate, int warmup) {
+        int version = planVersion.get();
+        AtomicLong roots = stableRoots;
+        if (roots == null || version != sampledVersion) {
+            // Racing threads may reset the count more than once, which only
+            // tracks a few more roots
+            roots = new AtomicLong();
+            stableRoots = roots;
+            sampledVersion = version;
+        }
+        long n = roots.incrementAndGet();
+        if (n <= warmup || minRate >= 1.0) {
+            return true;
+        }
+        long interval = n / Math.max(warmup, 1);
+        if (minRate > 0.0) {
+            interval = Math.min(interval, (long) Math.ceil(1.0 / minRate));
+        }
+        return n % interval == 0;
+    }
+
+    /**
+     * Decays the statistics of this top level profile and all its nodes
+     * exponentially, by half per half-life elapsed since they were last
+     * decayed. All statistics are scaled alike, so access percentages only
+     * change as new accesses outweigh old ones, or once the counts of an
+     * association which is no longer traversed fade to zero.
+     *
+     * @param halfLife half-life in milliseconds
+     * @param now      current time in milliseconds
+     */
+    protected void decayStatistics(long halfLife, long now) {
+        long step = Math.max(halfLife / DECAYS_PER_HALF_LIFE, 1);
+        long last = lastDecay;
+        if (last != 0 && now - last < step) {
+            return;
+        }
+        synchronized (this) {
+            last = lastDecay;
+            if (last == 0) {
+                // Statistics restored from a snapshot do not decay for the
+                // time the application was down
+                lastDecay = now;
+            } else if (now - last >= step) {
+                lastDecay = now;
+                // Paths whose counts faded to zero may no longer be worth
+                // prefetching although no access percentage left its bounds
+                if (scaleStatistics(Math.pow(0.5, (double) (now - last) / halfLife))) {
+                    invalidatePrefetchPlan();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether a count of any node dropped to zero
+     */
+    private boolean scaleStatistics(double factor) {
+        boolean faded = false;
+        for (TraversalProfileLink link : subProfiles) {
+            faded |= link.stats.decay(factor);
+            faded |= link.profile.scaleStatistics(factor);
+        }
+        return faded;
     }
 
     /**
      * @return whether there are any sub-extents
      */
     public boolean isEmpty() {
-        return subProfiles.isEmpty();
+        return subProfiles.length == 0;
     }
 
     /**
      * @return number of sub-extents
      */
     public int numSubProfiles() {
-        return subProfiles.size();
+        return subProfiles.length;
     }
 
     /**
@@ -177,18 +442,17 @@ public class TraversalProfile implements Serializable {
      */
     public String toString(int indent) {
         StringBuilder result = new StringBuilder();
-        for (Map.Entry<String, TraversalProfileLink> entry : subProfiles
-                .entrySet()) {
+        for (TraversalProfileLink link : subProfiles) {
             pad(result, indent);
             result.append("- ");
-            result.append(entry.getKey());
-            if (entry.getValue().collection) {
+            result.append(link.assoc);
+            if (link.collection) {
                 result.append("(C)");
             }
             result.append(" : ");
-            result.append(entry.getValue().stats);
+            result.append(link.stats);
             result.append('\n');
-            result.append(entry.getValue().profile.toString(indent + 2));
+            result.append(link.profile.toString(indent + 2));
         }
         return result.toString();
     }
@@ -0,0 +1,96 @@
+package org.autofetch.test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.autofetch.hibernate.AutofetchQuery;
+
+/**
+ * Test prefetching with HQL queries.
+ */
+public class AutofetchQueryTest extends FetchTestCase {
+
+	private static final int NUM_SUBORDINATES = 2;
+
+	@Test
+	public void testQueryPrefetch() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_SUBORDINATES, 0 );
+
+		// First pass only gathers statistics. Second pass joins the subordinates into the query.
+		long[] statementCounts = profileAndCount( new SubordinateAccess( "from Employee e where e.m_name like :name" ) );
+		Assert.assertEquals( 1 + NUM_EMPLOYEES, statementCounts[0] );
+		Assert.assertEquals( 1, statementCounts[1] );
+	}
+
+	@Test
+	public void testQueryPrefetchForms() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_SUBORDINATES, 0 );
+
+		long[] statementCounts = profileAndCount(
+				new SubordinateAccess( "select distinct e from Employee as e where e.m_name like :name order by e.m_name" ) );
+		Assert.assertEquals( 1, statementCounts[1] );
+
+		// Joins could make unqualified properties ambiguous, so they are only added if the root has an alias
+		statementCounts = profileAndCount( new SubordinateAccess( "from Employee where m_name like :name" ) );
+		Assert.assertEquals( 1 + NUM_EMPLOYEES, statementCounts[1] );
+	}
+
+	@Test
+	public void testIterateWithoutPrefetch() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_SUBORDINATES, 0 );
+
+		profileAndCount( new SubordinateAccess( "from Employee e where e.m_name like :name" ) );
+
+		inTransaction( new SessionWork() {
+			@Override
+			public void execute(Session sess) {
+				for ( int i = 0; i < 2; i++ ) {
+					Query query = new AutofetchQuery( sess, "from Employee e where e.m_name like :name" );
+					query.setString( "name", "Employee%" );
+					Assert.assertEquals( "from Employee e where e.m_name like :name", query.getQueryString() );
+					int numEmployees = 0;
+					for ( Iterator<?> it = i == 0 ? query.iterate() : query.setMaxResults( NUM_EMPLOYEES ).list().iterator(); it.hasNext(); ) {
+						it.next();
+						numEmployees++;
+					}
+					Assert.assertEquals( NUM_EMPLOYEES, numEmployees );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Runs the query and accesses the subordinates of each employee.
+	 */
+	private static class SubordinateAccess implements SessionWork {
+
+		private final String queryString;
+
+		SubordinateAccess(String queryString) {
+			this.queryString = queryString;
+		}
+
+		@Override
+		public void execute(Session sess) {
+			Query query = new AutofetchQuery( sess, queryString );
+			query.setString( "name", "Employee%" );
+			List<?> employees = query.list();
+			Assert.assertEquals( NUM_EMPLOYEES, employees.size() );
+			for ( Object o : employees ) {
+				Assert.assertEquals( NUM_SUBORDINATES, ( (Employee) o ).getSubordinates().size() );
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.autofetch.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.cfg.Configuration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.autofetch.hibernate.AutofetchSettings;
+import org.autofetch.hibernate.Statistics;
+
+/**
+ * Test loading uninitialized proxies of the same entity, and uninitialized collections of the same role, in batches.
+ */
+public class BatchFetchTest extends FetchTestCase {
+
+	@Test
+	public void testProxiesLoadedInBatch() {
+		em.clearExtentInformation();
+
+		List<Long> ids = createEmployees();
+
+		// First pass only gathers statistics, so subordinates are loaded separately from the employees.
+		// Second pass loads all the employees and their subordinates with a single query.
+		long[] statementCounts = profileAndCount( new SubordinateAccess( ids ) );
+		Assert.assertTrue( "subordinates should be loaded separately", statementCounts[0] > 1 );
+		Assert.assertEquals( 1, statementCounts[1] );
+	}
+
+	/**
+	 * Without prefetch paths the batch is still loaded by autofetch, so every employee of it is tracked.
+	 */
+	@Test
+	public void testBatchWithoutPrefetchTracked() {
+		em.clearExtentInformation();
+
+		countStatements( new SubordinateAccess( createEmployees() ) );
+		Statistics stats = em.getFirstProfile().getSubProfileStats( "m_subordinates" );
+		Assert.assertEquals( NUM_EMPLOYEES, stats.getTotal() );
+		Assert.assertEquals( NUM_EMPLOYEES, stats.getAccessed() );
+	}
+
+	@Test
+	public void testCollectionsLoadedInBatch() {
+		em.clearExtentInformation();
+
+		createEmployees();
+
+		// First pass only gathers statistics. Second pass loads the subordinates of all the
+		// employees along with their friends with a single query.
+		long[] statementCounts = profileAndCount( new SubordinateFriendAccess() );
+		Assert.assertTrue( "friends should be loaded separately", statementCounts[0] > 2 );
+		Assert.assertEquals( 2, statementCounts[1] );
+	}
+
+	/**
+	 * Queries the employees and accesses the friends of each of their subordinates.
+	 */
+	private static class SubordinateFriendAccess implements SessionWork {
+
+		@Override
+		public void execute(Session sess) {
+			List<?> employees = sess.createQuery( "from Employee e where e.m_name like 'Employee%'" ).list();
+			Assert.assertEquals( NUM_EMPLOYEES, employees.size() );
+			for ( Object o : employees ) {
+				for ( Employee subordinate : ( (Employee) o ).getSubordinates() ) {
+					Assert.assertEquals( 1, subordinate.getFriends().size() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads proxies for the given ids and accesses the subordinates of each one.
+	 */
+	private static class SubordinateAccess implements SessionWork {
+
+		private final List<Long> ids;
+
+		SubordinateAccess(List<Long> ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		public void execute(Session sess) {
+			List<Employee> employees = new ArrayList<Employee>();
+			for ( Long id : ids ) {
+				employees.add( (Employee) sess.load( Employee.class, id ) );
+			}
+			for ( Employee e : employees ) {
+				e.getSubordinates().size();
+			}
+		}
+	}
+
+	/**
+	 * Creates the employees with one subordinate each, who in turn has one friend.
+	 *
+	 * @return ids of the employees
+	 */
+	private List<Long> createEmployees() {
+		final List<Long> ids = new ArrayList<Long>();
+		inTransaction( new SessionWork() {
+			@Override
+			public void execute(Session sess) {
+				for ( int i = 0; i < NUM_EMPLOYEES; i++ ) {
+					Employee e = new Employee( "Employee" + i, null, null, new Address( "100 Main St.", "Austin", "Texas" ) );
+					Employee subordinate = new Employee( "Subordinate" + i, e, null, new Address( "101 Main St.", "Austin", "Texas" ) );
+					subordinate.addFriend( new Employee( "Friend" + i, null, null, new Address( "102 Main St.", "Austin", "Texas" ) ) );
+					e.addSubordinate( subordinate );
+					sess.save( e );
+					ids.add( e.getId() );
+				}
+			}
+		} );
+		return ids;
+	}
+
+	@Override
+	protected void configure(Configuration cfg) {
+		super.configure( cfg );
+		cfg.setProperty( AutofetchSettings.BATCH_SIZE, Integer.toString( NUM_EMPLOYEES ) );
+	}
+}
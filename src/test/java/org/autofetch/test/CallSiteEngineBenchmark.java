@@ -0,0 +1,118 @@
+package org.autofetch.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.autofetch.hibernate.CallSiteEngine;
+import org.autofetch.hibernate.FingerprintCallSiteEngine;
+import org.autofetch.hibernate.StackTraceCallSiteEngine;
+
+/**
+ * Measures the per-load cost of identifying the call site and finding its
+ * traversal profile, before (legacy list based program stack) and after
+ * (call site engines).
+ * <p>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main CallSiteEngineBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CallSiteEngineBenchmark {
+
+	private static final int LEGACY = 0;
+
+	private static final int STACK_TRACE = 1;
+
+	private static final int FINGERPRINT = 2;
+
+	private static final int MAX_STACK_FRAMES = 20;
+
+	// Must be at least MAX_STACK_FRAMES, so that set up and benchmark methods see the same call site
+	@Param({ "20", "60", "200" })
+	private int stackDepth;
+
+	private final CallSiteEngine stackTraceEngine = new StackTraceCallSiteEngine();
+
+	private final CallSiteEngine fingerprintEngine = new FingerprintCallSiteEngine();
+
+	private final ConcurrentMap<Object, Object> profiles = new ConcurrentHashMap<Object, Object>();
+
+	@Setup
+	public void setUp() {
+		profiles.clear();
+		for ( int engine = LEGACY; engine <= FINGERPRINT; engine++ ) {
+			profiles.put( capture( stackDepth, engine ), engine );
+		}
+	}
+
+	@Benchmark
+	public Object legacyProgramStack() {
+		return profiles.get( capture( stackDepth, LEGACY ) );
+	}
+
+	@Benchmark
+	public Object stackTraceEngine() {
+		return profiles.get( capture( stackDepth, STACK_TRACE ) );
+	}
+
+	@Benchmark
+	public Object fingerprintEngine() {
+		return profiles.get( capture( stackDepth, FINGERPRINT ) );
+	}
+
+	private Object capture(int depth, int engine) {
+		if ( depth > 0 ) {
+			return capture( depth - 1, engine );
+		}
+		switch ( engine ) {
+			case LEGACY:
+				return legacyStack( Thread.currentThread().getStackTrace() );
+			case STACK_TRACE:
+				return stackTraceEngine.currentProgramStack();
+			default:
+				return fingerprintEngine.currentProgramStack();
+		}
+	}
+
+	/**
+	 * Program stack key as it was built before call site engines existed.
+	 */
+	private static List<StackTraceElement> legacyStack(StackTraceElement[] stacktrace) {
+		List<StackTraceElement> frames = new ArrayList<StackTraceElement>( Arrays.asList( stacktrace ) );
+		Iterator<StackTraceElement> stIter = frames.iterator();
+		while ( stIter.hasNext() ) {
+			StackTraceElement ste = stIter.next();
+			boolean hibernateCoreMethod = ste.getClassName().startsWith( "org.hibernate." )
+					&& !ste.getClassName().startsWith( "org.hibernate.test." );
+			boolean autofetchCoreMethod = ste.getClassName().startsWith( "org.autofetch." )
+					&& !ste.getClassName().startsWith( "org.autofetch.test." );
+			if ( hibernateCoreMethod || autofetchCoreMethod || ste.isNativeMethod() ) {
+				stIter.remove();
+			}
+		}
+		if ( frames.size() > MAX_STACK_FRAMES ) {
+			frames = frames.subList( 0, MAX_STACK_FRAMES );
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,69 @@
+package org.autofetch.test;
+
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.autofetch.hibernate.AutofetchAttributeInterceptor;
+import org.autofetch.hibernate.AutofetchCriteria;
+
+/**
+ * Test tracking of entity classes enhanced at build time.
+ */
+public class EnhancedEntityTest extends FetchTestCase {
+
+	private static final int NUM_PROJECTS = 5;
+
+	@Test
+	public void testEnhancedEntityPrefetch() {
+		em.clearExtentInformation();
+
+		createProjects();
+
+		// First pass only gathers statistics. Second pass joins the lead into the query.
+		long[] statementCounts = profileAndCount( new LeadAccess() );
+		Assert.assertEquals( 1 + NUM_PROJECTS, statementCounts[0] );
+		Assert.assertEquals( 1, statementCounts[1] );
+	}
+
+	/**
+	 * Loads all projects and accesses the name of their lead.
+	 */
+	private static class LeadAccess implements SessionWork {
+
+		@Override
+		public void execute(Session sess) {
+			Criteria crit = new AutofetchCriteria( sess.createCriteria( Project.class ) );
+			List<?> projects = crit.list();
+			Assert.assertEquals( NUM_PROJECTS, projects.size() );
+			for ( Object o : projects ) {
+				Project p = (Project) o;
+				// Enhanced classes are instantiated as is
+				Assert.assertEquals( Project.class, p.getClass() );
+				Assert.assertTrue( p.$$_hibernate_getInterceptor() instanceof AutofetchAttributeInterceptor );
+				Assert.assertNotNull( p.getLead().getName() );
+			}
+		}
+	}
+
+	private void createProjects() {
+		inTransaction( new SessionWork() {
+			@Override
+			public void execute(Session sess) {
+				for ( int i = 0; i < NUM_PROJECTS; i++ ) {
+					Employee lead = new Employee( "Lead" + i, null, null, new Address( "100 Main St.", "Austin", "Texas" ) );
+					sess.save( new Project( "Project" + i, lead ) );
+				}
+			}
+		} );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Employee.class, Address.class, Project.class };
+	}
+}
@@ -0,0 +1,164 @@
+package org.autofetch.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.autofetch.hibernate.CallSiteEngine;
+import org.autofetch.hibernate.ExtentManager;
+import org.autofetch.hibernate.ProgramStack;
+import org.autofetch.hibernate.TraversalProfile;
+
+/**
+ * Throughput of traversal profile lookups by one thread and by as many threads
+ * as there are cores. With a lock free lookup, the aggregate throughput of the
+ * latter should grow with the number of cores.
+ * <p>
+ * The lookups of a single hot key only take the hit path. The varied lookups
+ * spread over numQueries queries with at most MAX_PROFILES profiles kept, so
+ * with more queries than that most lookups miss, create a profile and evict
+ * another one. They use a fixed call site, so that capturing the stack does
+ * not hide the cost of the profile map.
+ * <p>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main ExtentManagerBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ExtentManagerBenchmark {
+
+	private static final int MAX_PROFILES = 1024;
+
+	private static final int NUM_ASSOCIATIONS = 8;
+
+	private final ExtentManager em = new ExtentManager();
+
+	// Fits into MAX_PROFILES, or mostly misses
+	@Param({ "64", "4096" })
+	private int numQueries;
+
+	private BenchmarkExtentManager boundedEm;
+
+	private String[] queryIds;
+
+	private String[] associations;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		boundedEm = new BenchmarkExtentManager();
+		boundedEm.setMaxProfiles( MAX_PROFILES );
+		boundedEm.setCallSiteEngine( new FixedCallSiteEngine() );
+		queryIds = new String[numQueries];
+		for ( int i = 0; i < numQueries; i++ ) {
+			queryIds[i] = "Employee" + i;
+		}
+		associations = new String[NUM_ASSOCIATIONS];
+		for ( int i = 0; i < NUM_ASSOCIATIONS; i++ ) {
+			associations[i] = "association" + i;
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object lookupSingleThread() {
+		return em.getPrefetchPaths( "Employee" );
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object lookupAllCores() {
+		return em.getPrefetchPaths( "Employee" );
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object variedLookupSingleThread(Keys keys) {
+		return boundedEm.getPrefetchPaths( queryIds[keys.next( numQueries )] );
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object variedLookupAllCores(Keys keys) {
+		return boundedEm.getPrefetchPaths( queryIds[keys.next( numQueries )] );
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object subProfileSingleThread(Keys keys) {
+		return addSubProfile( keys );
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object subProfileAllCores(Keys keys) {
+		return addSubProfile( keys );
+	}
+
+	/**
+	 * Looks up the profile of one of the queries and adds a sub-profile to it,
+	 * which only exists already if the profile was not evicted in between.
+	 */
+	private Object addSubProfile(Keys keys) {
+		TraversalProfile tp = boundedEm.traversalProfile( queryIds[keys.next( numQueries )] );
+		int assoc = keys.next( NUM_ASSOCIATIONS );
+		return boundedEm.getOrAddSubProfileStats( tp, associations[assoc], assoc % 2 == 0 );
+	}
+
+	/**
+	 * Pseudo-random key sequence of a benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Keys {
+
+		private int seed;
+
+		@Setup
+		public void setUp() {
+			seed = System.identityHashCode( this ) | 1;
+		}
+
+		int next(int bound) {
+			// xorshift
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			return ( seed & Integer.MAX_VALUE ) % bound;
+		}
+	}
+
+	private static class BenchmarkExtentManager extends ExtentManager {
+
+		private static final long serialVersionUID = 1L;
+
+		TraversalProfile traversalProfile(String queryId) {
+			return getTraversalProfile( queryId );
+		}
+	}
+
+	private static class FixedCallSiteEngine implements CallSiteEngine {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ProgramStack programStack = new ProgramStack( 1L );
+
+		@Override
+		public ProgramStack currentProgramStack() {
+			return programStack;
+		}
+	}
+}
@@ -0,0 +1,556 @@
+package org.autofetch.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.autofetch.hibernate.CostBasedPrefetchStrategy;
+import org.autofetch.hibernate.ExtentManager;
+import org.autofetch.hibernate.Path;
+import org.autofetch.hibernate.PrefetchMode;
+import org.autofetch.hibernate.Statistics;
+import org.autofetch.hibernate.TrackableEntity;
+import org.autofetch.hibernate.TraversalProfile;
+
+/**
+ * Tests of the extent manager which do not need a session factory.
+ */
+public class ExtentManagerTest {
+
+	private static final int NUM_THREADS = 16;
+
+	private static final int LOOKUPS_PER_THREAD = 2000;
+
+	private ExtentManager em;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		em = new ExtentManager();
+		executor = Executors.newFixedThreadPool( NUM_THREADS );
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Concurrent lookups from the same call site must all end up in one traversal profile.
+	 */
+	@Test
+	public void testConcurrentLookupCreatesSingleProfile() throws Exception {
+		final CountDownLatch start = new CountDownLatch( 1 );
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for ( int i = 0; i < NUM_THREADS; i++ ) {
+			results.add( executor.submit( new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int numPaths = 0;
+					for ( int j = 0; j < LOOKUPS_PER_THREAD; j++ ) {
+						numPaths += em.getPrefetchPaths( "Employee" ).size();
+					}
+					return numPaths;
+				}
+			} ) );
+		}
+		start.countDown();
+		for ( Future<Integer> result : results ) {
+			Assert.assertEquals( "No associations were traversed", 0, result.get().intValue() );
+		}
+
+		Assert.assertEquals( "All threads share one call site", 1, em.getExtentEntries().size() );
+		Map.Entry<?, TraversalProfile> entry = em.getExtentEntries().iterator().next();
+		Assert.assertSame( "First profile is the shared profile", entry.getValue(), em.getFirstProfile() );
+	}
+
+	/**
+	 * Threads growing the same profile concurrently must not lose or duplicate sub-profiles.
+	 */
+	@Test
+	public void testConcurrentSubProfileCreation() throws Exception {
+		final TraversalProfile tp = new TraversalProfile();
+		final String[] assocs = { "supervisor", "mentor", "subordinates", "friends", "address" };
+		final CountDownLatch start = new CountDownLatch( 1 );
+		List<Future<Statistics[]>> results = new ArrayList<Future<Statistics[]>>();
+		for ( int i = 0; i < NUM_THREADS; i++ ) {
+			final int offset = i;
+			results.add( executor.submit( new Callable<Statistics[]>() {
+				@Override
+				public Statistics[] call() throws Exception {
+					start.await();
+					Statistics[] stats = new Statistics[assocs.length];
+					for ( int j = 0; j < assocs.length; j++ ) {
+						int k = ( j + offset ) % assocs.length;
+						stats[k] = em.getOrAddSubProfileStats( tp, assocs[k], false );
+						stats[k].incrementTotal( 1 );
+					}
+					return stats;
+				}
+			} ) );
+		}
+		start.countDown();
+		for ( Future<Statistics[]> result : results ) {
+			Statistics[] stats = result.get();
+			for ( int k = 0; k < assocs.length; k++ ) {
+				Assert.assertSame( "Sub-profile created once", tp.getSubProfileStats( assocs[k] ), stats[k] );
+			}
+		}
+		Assert.assertEquals( assocs.length, tp.numSubProfiles() );
+		for ( String assoc : assocs ) {
+			Assert.assertEquals( "No lost updates", NUM_THREADS, tp.getSubProfileStats( assoc ).getTotal() );
+		}
+	}
+
+	/**
+	 * The prefetch plan is reused until the statistics cross the fetch threshold.
+	 */
+	@Test
+	public void testPrefetchPlanCachedUntilThresholdCrossed() throws Exception {
+		List<Path> paths = prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		em.addSubProfile( tp, "supervisor", false );
+		Statistics stats = tp.getSubProfileStats( "supervisor" );
+		stats.incrementTotal( 1 );
+		stats.loadedAssociation();
+
+		paths = prefetchPaths();
+		Assert.assertEquals( "[supervisor]", paths.toString() );
+		Assert.assertSame( "Plan is cached", paths, prefetchPaths() );
+
+		// 1 of 2 accesses stays above the default threshold
+		stats.incrementTotal( 1 );
+		Assert.assertSame( "Plan still holds", paths, prefetchPaths() );
+
+		// 1 of 3 accesses drops below it
+		stats.incrementTotal( 1 );
+		paths = prefetchPaths();
+		Assert.assertTrue( "Plan was recomputed", paths.isEmpty() );
+
+		em.setFetchParam( 0.3 );
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+	}
+
+	/**
+	 * The cost based strategy picks the cheapest way of fetching each association.
+	 */
+	@Test
+	public void testCostBasedStrategy() throws Exception {
+		em.setPrefetchStrategy( new CostBasedPrefetchStrategy() );
+		prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		Statistics supervisor = em.getOrAddSubProfileStats( tp, "supervisor", false );
+		supervisor.incrementTotal( 1 );
+		supervisor.loadedAssociation();
+		Statistics subordinates = em.getOrAddSubProfileStats( tp, "subordinates", true );
+		subordinates.incrementTotal( 1 );
+		subordinates.loadedAssociation();
+		subordinates.loadedElements( 100 );
+
+		// A narrow to-one association is joined, a large collection is loaded by a subselect
+		Assert.assertEquals( "[supervisor]", prefetchPaths( PrefetchMode.JOIN ).toString() );
+		Assert.assertEquals( "[subordinates]", prefetchPaths( PrefetchMode.SUBSELECT ).toString() );
+
+		// Batches share the round trip among more parents than a subselect is expected to, so the collection is
+		// left to be batch loaded
+		em.setBatchSize( 20 );
+		Assert.assertTrue( prefetchPaths( PrefetchMode.SUBSELECT ).isEmpty() );
+		Assert.assertEquals( "[supervisor]", prefetchPaths( PrefetchMode.JOIN ).toString() );
+
+		// Small collections are joined
+		em.setBatchSize( ExtentManager.DEFAULT_BATCH_SIZE );
+		Statistics friends = em.getOrAddSubProfileStats( tp.getSubProfile( "supervisor" ), "friends", true );
+		friends.incrementTotal( 1 );
+		friends.loadedAssociation();
+		friends.loadedElements( 2 );
+		Assert.assertEquals( "[supervisor, supervisor.friends]", prefetchPaths( PrefetchMode.JOIN ).toString() );
+	}
+
+	/**
+	 * The plan is recomputed when collections grow, even though they are accessed as often as before.
+	 */
+	@Test
+	public void testPlanFollowsCollectionSize() throws Exception {
+		em.setPrefetchStrategy( new CostBasedPrefetchStrategy() );
+		prefetchPaths();
+		Statistics subordinates = em.getOrAddSubProfileStats( em.getFirstProfile(), "subordinates", true );
+		subordinates.incrementTotal( 1 );
+		subordinates.loadedAssociation();
+		subordinates.loadedElements( 2 );
+		Assert.assertEquals( "[subordinates]", prefetchPaths( PrefetchMode.JOIN ).toString() );
+
+		for ( int i = 0; i < 10; i++ ) {
+			subordinates.incrementTotal( 1 );
+			subordinates.loadedAssociation();
+			subordinates.loadedElements( 100 );
+		}
+		Assert.assertTrue( prefetchPaths( PrefetchMode.JOIN ).isEmpty() );
+		Assert.assertEquals( "[subordinates]", prefetchPaths( PrefetchMode.SUBSELECT ).toString() );
+	}
+
+	/**
+	 * Profiles beyond the limit are evicted, sparing recently used ones.
+	 */
+	@Test
+	public void testProfileEviction() throws Exception {
+		em.setMaxProfiles( 3 );
+		for ( String queryId : new String[] { "A", "B", "C", "D" } ) {
+			prefetchPaths( queryId );
+		}
+		Assert.assertEquals( 3, em.getExtentEntries().size() );
+		Assert.assertEquals( 1, em.getProfileEvictionCount() );
+
+		// B is used again, so C is evicted instead
+		prefetchPaths( "B" );
+		prefetchPaths( "E" );
+		prefetchPaths( "B" );
+		Assert.assertEquals( 3, em.getExtentEntries().size() );
+		Assert.assertEquals( 2, em.getProfileEvictionCount() );
+		Assert.assertEquals( 2, em.getProfileHitCount() );
+		Assert.assertEquals( 5, em.getProfileMissCount() );
+
+		prefetchPaths( "C" );
+		Assert.assertEquals( "C was evicted", 6, em.getProfileMissCount() );
+	}
+
+	/**
+	 * Profiles written by one extent manager give the same prefetch paths in another.
+	 */
+	@Test
+	public void testProfilesSurviveRestart() throws Exception {
+		prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		Statistics stats = em.getOrAddSubProfileStats( tp, "supervisor", false );
+		stats.incrementTotal( 2 );
+		stats.loadedAssociation();
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+
+		File file = File.createTempFile( "profiles", ".afps" );
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream( file );
+		try {
+			Assert.assertEquals( 1, em.writeProfiles( out ) );
+		}
+		finally {
+			out.close();
+		}
+
+		em = new ExtentManager();
+		Assert.assertEquals( 1, em.mapProfiles( file ) );
+		Assert.assertEquals( "Profiles are decoded on demand", 0, em.getExtentEntries().size() );
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+		Map.Entry<?, TraversalProfile> entry = em.getExtentEntries().iterator().next();
+		Assert.assertEquals( "1 / 2", entry.getValue().getSubProfileStats( "supervisor" ).toString() );
+	}
+
+	/**
+	 * A truncated snapshot is either rejected when mapped or ignored when a profile cannot be decoded, and never
+	 * fails a lookup.
+	 */
+	@Test
+	public void testTruncatedSnapshot() throws Exception {
+		prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		Statistics stats = em.getOrAddSubProfileStats( tp, "supervisor", false );
+		stats.incrementTotal( 2 );
+		stats.loadedAssociation();
+		em.getOrAddSubProfileStats( tp.getSubProfile( "supervisor" ), "mentor", false ).incrementTotal( 1 );
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		em.writeProfiles( out );
+		byte[] bytes = out.toByteArray();
+
+		File file = File.createTempFile( "profiles", ".afps" );
+		file.deleteOnExit();
+		int rejected = 0;
+		for ( int length = 0; length < bytes.length; length++ ) {
+			OutputStream fileOut = new FileOutputStream( file );
+			try {
+				fileOut.write( bytes, 0, length );
+			}
+			finally {
+				fileOut.close();
+			}
+
+			em = new ExtentManager();
+			try {
+				em.mapProfiles( file );
+			}
+			catch (IOException e) {
+				rejected++;
+				continue;
+			}
+			Assert.assertTrue( "Profile lookup does not fail", prefetchPaths().isEmpty() );
+			em.writeProfiles( new ByteArrayOutputStream() );
+		}
+		Assert.assertTrue( "Truncated headers are rejected", rejected > 0 );
+	}
+
+	/**
+	 * With sampling, every root is tracked until the statistics settle, few afterwards, and all again once the
+	 * profile changes.
+	 */
+	@Test
+	public void testProfileSampling() throws Exception {
+		TraversalProfile tp = new TraversalProfile();
+		CountingEntity entity = new CountingEntity();
+		for ( int i = 0; i < 1000; i++ ) {
+			em.markAsRoot( entity, tp );
+		}
+		Assert.assertEquals( "Every root is tracked by default", 1000, entity.trackers );
+
+		em.setProfileSampleRate( 0.0 );
+		em.setProfileSampleWarmup( 10 );
+		tp = new TraversalProfile();
+		entity = new CountingEntity();
+		for ( int i = 0; i < 10; i++ ) {
+			em.markAsRoot( entity, tp );
+		}
+		Assert.assertEquals( "Every root is tracked while warming up", 10, entity.trackers );
+		for ( int i = 10; i < 1000; i++ ) {
+			em.markAsRoot( entity, tp );
+		}
+		Assert.assertTrue( "Few roots are tracked once stable: " + entity.trackers, entity.trackers < 200 );
+
+		int tracked = entity.trackers;
+		em.addSubProfile( tp, "supervisor", false );
+		for ( int i = 0; i < 10; i++ ) {
+			em.markAsRoot( entity, tp );
+		}
+		Assert.assertEquals( "Every root is tracked after the profile changed", tracked + 10, entity.trackers );
+
+		em.setProfileSampleRate( 0.5 );
+		entity = new CountingEntity();
+		for ( int i = 0; i < 1000; i++ ) {
+			em.markAsRoot( entity, tp );
+		}
+		Assert.assertTrue( "At least the sample rate is tracked: " + entity.trackers, entity.trackers >= 500 );
+	}
+
+	/**
+	 * Sample rates outside 0 to 1 and negative warmups are rejected.
+	 */
+	@Test
+	public void testInvalidProfileSampling() {
+		for ( double rate : new double[] { -0.1, 1.5, Double.NaN } ) {
+			try {
+				em.setProfileSampleRate( rate );
+				Assert.fail( "Sample rate " + rate + " should be rejected" );
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			em.setProfileSampleWarmup( -1 );
+			Assert.fail( "Negative warmup should be rejected" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals( ExtentManager.DEFAULT_PROFILE_SAMPLE_RATE, em.getProfileSampleRate(), 0.0 );
+		Assert.assertEquals( ExtentManager.DEFAULT_PROFILE_SAMPLE_WARMUP, em.getProfileSampleWarmup() );
+	}
+
+	/**
+	 * Negative limits and half-lives, and batch sizes below one, are rejected.
+	 */
+	@Test
+	public void testInvalidLimits() {
+		try {
+			em.setMaxProfiles( -1 );
+			Assert.fail( "Negative maximum number of profiles should be rejected" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			em.setBatchSize( 0 );
+			Assert.fail( "Batch size 0 should be rejected" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			em.setStatisticsHalfLife( -1 );
+			Assert.fail( "Negative half-life should be rejected" );
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals( ExtentManager.DEFAULT_MAX_PROFILES, em.getMaxProfiles() );
+		Assert.assertEquals( ExtentManager.DEFAULT_BATCH_SIZE, em.getBatchSize() );
+		Assert.assertEquals( 0, em.getStatisticsHalfLife() );
+	}
+
+	/**
+	 * With a half-life, recent traversals outweigh old ones, so prefetching follows a change in access pattern.
+	 */
+	@Test
+	public void testStatisticsDecay() throws Exception {
+		em.setStatisticsHalfLife( 100 );
+		prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		Statistics stats = em.getOrAddSubProfileStats( tp, "supervisor", false );
+		for ( int i = 0; i < 10; i++ ) {
+			stats.incrementTotal( 1 );
+			stats.loadedAssociation();
+		}
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+
+		// After a few half-lives the supervisor stops being accessed
+		Thread.sleep( 200 );
+		prefetchPaths();
+		stats.incrementTotal( 5 );
+		Assert.assertTrue( "Old accesses were discounted: " + stats, prefetchPaths().isEmpty() );
+
+		// Without a half-life the old accesses still dominate
+		em = new ExtentManager();
+		prefetchPaths();
+		stats = em.getOrAddSubProfileStats( em.getFirstProfile(), "supervisor", false );
+		for ( int i = 0; i < 10; i++ ) {
+			stats.incrementTotal( 1 );
+			stats.loadedAssociation();
+		}
+		Thread.sleep( 200 );
+		stats.incrementTotal( 5 );
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+	}
+
+	/**
+	 * Statistics of an association which is no longer traversed fade to zero, so it stops being prefetched without
+	 * any new loads.
+	 */
+	@Test
+	public void testStatisticsFade() throws Exception {
+		em.setStatisticsHalfLife( 20 );
+		prefetchPaths();
+		Statistics stats = em.getOrAddSubProfileStats( em.getFirstProfile(), "supervisor", false );
+		for ( int i = 0; i < 10; i++ ) {
+			stats.incrementTotal( 1 );
+			stats.loadedAssociation();
+		}
+		Assert.assertEquals( "[supervisor]", prefetchPaths().toString() );
+
+		// Ten half-lives leave less than one of the ten accesses
+		Thread.sleep( 200 );
+		Assert.assertTrue( "Old accesses faded: " + stats, prefetchPaths().isEmpty() );
+		Assert.assertEquals( 0, stats.getAccessed() );
+		Assert.assertEquals( 0, stats.getTotal() );
+	}
+
+	/**
+	 * Decay which does not empty any statistics keeps the prefetch plan, so sampling settles despite a short
+	 * half-life.
+	 */
+	@Test
+	public void testSamplingSettlesWithDecay() throws Exception {
+		em.setStatisticsHalfLife( 10 );
+		em.setProfileSampleRate( 0.0 );
+		em.setProfileSampleWarmup( 10 );
+		prefetchPaths();
+		TraversalProfile tp = em.getFirstProfile();
+		Statistics stats = em.getOrAddSubProfileStats( tp, "supervisor", false );
+		stats.incrementTotal( Integer.MAX_VALUE );
+		for ( int i = 0; i < 1 << 20; i++ ) {
+			stats.loadedAssociation();
+		}
+
+		CountingEntity entity = new CountingEntity();
+		for ( int i = 0; i < 50; i++ ) {
+			Thread.sleep( 2 );
+			prefetchPaths();
+			for ( int j = 0; j < 20; j++ ) {
+				em.markAsRoot( entity, tp );
+			}
+		}
+		Assert.assertTrue( "Few roots are tracked once stable: " + entity.trackers, entity.trackers < 200 );
+	}
+
+	private List<Path> prefetchPaths() throws Exception {
+		return prefetchPaths( "Employee" );
+	}
+
+	/**
+	 * Looks up the paths of the first profile which are fetched a certain way.
+	 */
+	private List<Path> prefetchPaths(final PrefetchMode mode) throws Exception {
+		return executor.submit( new Callable<List<Path>>() {
+			@Override
+			public List<Path> call() {
+				return em.getPrefetchPaths( em.getFirstProfile(), mode );
+			}
+		} ).get();
+	}
+
+	/**
+	 * Looks up prefetch paths on a pool thread, so that every lookup comes from the same call site.
+	 */
+	private List<Path> prefetchPaths(final String queryId) throws Exception {
+		return executor.submit( new Callable<List<Path>>() {
+			@Override
+			public List<Path> call() {
+				return em.getPrefetchPaths( queryId );
+			}
+		} ).get();
+	}
+
+	/**
+	 * Entity which is never accessed and counts the trackers it is given.
+	 */
+	private static class CountingEntity implements TrackableEntity {
+
+		private int trackers;
+
+		@Override
+		public void extendProfile(Statistics tracker) {
+		}
+
+		@Override
+		public boolean enableTracking() {
+			return true;
+		}
+
+		@Override
+		public boolean disableTracking() {
+			return true;
+		}
+
+		@Override
+		public void removeTracker(Statistics tracker) {
+		}
+
+		@Override
+		public void addTracker(Statistics tracker) {
+			trackers++;
+		}
+
+		@Override
+		public void addTrackers(Set<Statistics> tracker) {
+			trackers += tracker.size();
+		}
+
+		@Override
+		public boolean isAccessed() {
+			return false;
+		}
+	}
+}
@@ -3,6 +3,11 @@
  */
 package org.autofetch.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.hibernate.Criteria;
 import org.hibernate.Hibernate;
 import org.hibernate.LazyInitializationException;
@@ -19,6 +24,7 @@ import org.junit.Test;
 
 import org.autofetch.hibernate.AutofetchCriteria;
 import org.autofetch.hibernate.AutofetchService;
+import org.autofetch.hibernate.EntityMetadata;
 import org.autofetch.hibernate.ExtentManager;
 import org.autofetch.hibernate.Statistics;
 import org.autofetch.hibernate.TraversalProfile;
@@ -35,6 +41,9 @@ public class ExtentTest extends BaseCoreFunctionalTestCase {
 
 	private static final int NUM_FRIENDS = 2;
 
+	// Number of friends for the employee in largeFriendsAccess, more than autofetch samples
+	private static final int NUM_MANY_FRIENDS = 200;
+
 	private ExtentManager em;
 
 	private StandardServiceRegistryImpl registry;
@@ -250,6 +259,40 @@ public class ExtentTest extends BaseCoreFunctionalTestCase {
 		Assert.assertTrue( "Subordinate extent should be empty", tp.getSubProfile( "m_subordinates" ).isEmpty() );
 	}
 
+	/**
+	 * Serialize entity metadata and check that it resolves to the instance registered for the session factory.
+	 */
+	@Test
+	public void testEntityMetadataSerialization() throws Exception {
+		EntityMetadata metadata = em.getEntityMetadata( Employee.class.getName() );
+		Assert.assertNotNull( "Employee metadata should be registered", metadata );
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream( bytes );
+		out.writeObject( metadata );
+		out.close();
+		ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+		Assert.assertSame( "Metadata should resolve to the registered instance", metadata, in.readObject() );
+	}
+
+	/**
+	 * Load employee, only check whether a large collection is empty, and check that only a sample of its elements is
+	 * tracked.
+	 */
+	@Test
+	public void testLargeCollectionSampled() {
+		em.clearExtentInformation();
+
+		largeFriendsAccess();
+
+		TraversalProfile tp = em.getFirstProfile();
+		checkStatistics( tp, 1, "m_friends" );
+		checkStatisticsNotAccessed( tp.getSubProfile( "m_friends" ), "m_mentor", "m_supervisor" );
+
+		Statistics stat = tp.getSubProfile( "m_friends" ).getSubProfileStats( "m_mentor" );
+		Assert.assertTrue( "Only a sample of the friends should be tracked", stat.getTotal() < NUM_MANY_FRIENDS );
+	}
+
 	/**
 	 * Load employee and traverse supervisor association two levels deep and check extent statistics.
 	 */
@@ -449,6 +492,46 @@ public class ExtentTest extends BaseCoreFunctionalTestCase {
 		}
 	}
 
+	private void largeFriendsAccess() {
+		Session sess;
+		Transaction tx = null;
+		Long employeeId;
+		try {
+			sess = openSession();
+			tx = sess.beginTransaction();
+			Employee boss = new Employee( "Boss", null, null, new Address( "101 Main St.", "Austin", "Texas" ) );
+			Employee employee = new Employee( "Popular", null, null, new Address( "100 Main St.", "Austin", "Texas" ) );
+			for ( int i = 0; i < NUM_MANY_FRIENDS; i++ ) {
+				employee.addFriend( new Employee( "Friend" + i, boss, boss,
+												  new Address( "100 Friend St.", "Austin", "Texas" )
+				) );
+			}
+			sess.save( employee );
+			tx.commit();
+			tx = null;
+			employeeId = employee.getId();
+		}
+		finally {
+			if ( tx != null ) {
+				tx.rollback();
+			}
+		}
+
+		try {
+			sess = openSession();
+			tx = sess.beginTransaction();
+			Employee employee = (Employee) sess.load( Employee.class, employeeId );
+			Assert.assertFalse( "Friends should not be empty", employee.getFriends().isEmpty() );
+			tx.commit();
+			tx = null;
+		}
+		finally {
+			if ( tx != null ) {
+				tx.rollback();
+			}
+		}
+	}
+
 	private void collectionAccess1() {
 		Session sess;
 		Transaction tx = null;
@@ -0,0 +1,121 @@
+package org.autofetch.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import org.autofetch.hibernate.AutofetchService;
+import org.autofetch.hibernate.ExtentManager;
+
+/**
+ * Base class of tests which check the statements saved by prefetching. Such a test runs a scenario once to gather
+ * statistics and once more to count the statements executed with the resulting prefetch plan.
+ */
+public abstract class FetchTestCase extends BaseCoreFunctionalTestCase {
+
+	protected static final int NUM_EMPLOYEES = 5;
+
+	protected ExtentManager em;
+
+	/**
+	 * Work done in a transaction of its own session.
+	 */
+	protected interface SessionWork {
+
+		void execute(Session sess);
+	}
+
+	/**
+	 * Runs the work in a new session and transaction.
+	 */
+	protected void inTransaction(SessionWork work) {
+		Session sess = openSession();
+		Transaction tx = null;
+		try {
+			tx = sess.beginTransaction();
+			work.execute( sess );
+			tx.commit();
+			tx = null;
+		}
+		finally {
+			if ( tx != null ) {
+				tx.rollback();
+			}
+			sess.close();
+		}
+	}
+
+	/**
+	 * Runs the work in a new session and transaction.
+	 *
+	 * @return number of statements executed
+	 */
+	protected long countStatements(SessionWork work) {
+		sessionFactory().getStatistics().clear();
+		inTransaction( work );
+		return sessionFactory().getStatistics().getPrepareStatementCount();
+	}
+
+	/**
+	 * Runs the work twice from the same call site. The first pass only gathers statistics, the second pass runs
+	 * with the prefetch plan built from them.
+	 *
+	 * @return number of statements executed by each pass
+	 */
+	protected long[] profileAndCount(SessionWork work) {
+		long[] statementCounts = new long[2];
+		for ( int i = 0; i < statementCounts.length; i++ ) {
+			statementCounts[i] = countStatements( work );
+		}
+		return statementCounts;
+	}
+
+	/**
+	 * Creates NUM_EMPLOYEES employees named "Employee" followed by their index, each with the given number of
+	 * subordinates and friends.
+	 *
+	 * @return ids of the employees
+	 */
+	protected List<Long> createEmployees(final int numSubordinates, final int numFriends) {
+		final List<Long> ids = new ArrayList<Long>();
+		inTransaction( new SessionWork() {
+			@Override
+			public void execute(Session sess) {
+				for ( int i = 0; i < NUM_EMPLOYEES; i++ ) {
+					Employee e = new Employee( "Employee" + i, null, null, new Address( "100 Main St.", "Austin", "Texas" ) );
+					for ( int j = 0; j < numSubordinates; j++ ) {
+						e.addSubordinate( new Employee( "Subordinate" + i + j, e, null, new Address( "101 Main St.", "Austin", "Texas" ) ) );
+					}
+					for ( int j = 0; j < numFriends; j++ ) {
+						e.addFriend( new Employee( "Friend" + i + j, null, null, new Address( "102 Main St.", "Austin", "Texas" ) ) );
+					}
+					sess.save( e );
+					ids.add( e.getId() );
+				}
+			}
+		} );
+		return ids;
+	}
+
+	@Override
+	protected void configure(Configuration cfg) {
+		super.configure( cfg );
+		cfg.setProperty( Environment.GENERATE_STATISTICS, "true" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Employee.class, Address.class };
+	}
+
+	@Override
+	protected void afterSessionFactoryBuilt() {
+		this.em = serviceRegistry().getService( AutofetchService.class ).getExtentManager();
+	}
+}
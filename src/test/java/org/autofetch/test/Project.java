@@ -0,0 +1,108 @@
+package org.autofetch.test;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Transient;
+
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
+import org.hibernate.engine.spi.PersistentAttributeInterceptor;
+
+/**
+ * Entity written the way the Hibernate enhancer weaves attribute interception into a class,
+ * so that tests do not depend on build-time enhancement.
+ */
+@Entity
+public class Project implements PersistentAttributeInterceptable {
+
+	@Id
+	@Column(name = "project_id")
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long m_id;
+
+	@Column(name = "name")
+	private String m_name;
+
+	@JoinColumn(name = "lead_id")
+	@ManyToOne(cascade = { CascadeType.ALL })
+	@Fetch(FetchMode.SELECT)
+	private Employee m_lead;
+
+	@Transient
+	private transient PersistentAttributeInterceptor $$_hibernate_attributeInterceptor;
+
+	/**
+	 * Default constructor. Needed by Hibernate
+	 */
+	protected Project() {
+		// Nothing
+	}
+
+	public Project(String name, Employee lead) {
+		m_name = name;
+		m_lead = lead;
+	}
+
+	public Long getId() {
+		return $$_hibernate_read_m_id();
+	}
+
+	public String getName() {
+		return $$_hibernate_read_m_name();
+	}
+
+	public Employee getLead() {
+		return $$_hibernate_read_m_lead();
+	}
+
+	public void setLead(Employee lead) {
+		$$_hibernate_write_m_lead( lead );
+	}
+
+	@Override
+	public PersistentAttributeInterceptor $$_hibernate_getInterceptor() {
+		return $$_hibernate_attributeInterceptor;
+	}
+
+	@Override
+	public void $$_hibernate_setInterceptor(PersistentAttributeInterceptor interceptor) {
+		$$_hibernate_attributeInterceptor = interceptor;
+	}
+
+	private Long $$_hibernate_read_m_id() {
+		if ( $$_hibernate_getInterceptor() != null ) {
+			m_id = (Long) $$_hibernate_getInterceptor().readObject( this, "m_id", m_id );
+		}
+		return m_id;
+	}
+
+	private String $$_hibernate_read_m_name() {
+		if ( $$_hibernate_getInterceptor() != null ) {
+			m_name = (String) $$_hibernate_getInterceptor().readObject( this, "m_name", m_name );
+		}
+		return m_name;
+	}
+
+	private Employee $$_hibernate_read_m_lead() {
+		if ( $$_hibernate_getInterceptor() != null ) {
+			m_lead = (Employee) $$_hibernate_getInterceptor().readObject( this, "m_lead", m_lead );
+		}
+		return m_lead;
+	}
+
+	private void $$_hibernate_write_m_lead(Employee lead) {
+		if ( $$_hibernate_getInterceptor() != null ) {
+			m_lead = (Employee) $$_hibernate_getInterceptor().writeObject( this, "m_lead", m_lead, lead );
+		}
+		else {
+			m_lead = lead;
+		}
+	}
+}
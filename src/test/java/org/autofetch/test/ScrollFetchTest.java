@@ -0,0 +1,83 @@
+package org.autofetch.test;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.autofetch.hibernate.AutofetchCriteria;
+import org.autofetch.hibernate.AutofetchQuery;
+
+/**
+ * Test tracking and prefetching of scrolled results.
+ */
+public class ScrollFetchTest extends FetchTestCase {
+
+	private static final int NUM_SUBORDINATES = 2;
+
+	@Test
+	public void testCriteriaScroll() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_SUBORDINATES, 0 );
+
+		// First pass only gathers statistics. Second pass joins the supervisor, but not the
+		// subordinates, since a joined collection would repeat rows.
+		long[] statementCounts = profileAndCount( new ScrollAccess( false ) );
+		Assert.assertEquals( 1 + NUM_EMPLOYEES + NUM_EMPLOYEES * NUM_SUBORDINATES, statementCounts[0] );
+		Assert.assertEquals( 1 + NUM_EMPLOYEES * NUM_SUBORDINATES, statementCounts[1] );
+	}
+
+	@Test
+	public void testQueryScroll() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_SUBORDINATES, 0 );
+
+		// Collection fetches cannot be scrolled with HQL, so the query runs without joins.
+		long[] statementCounts = profileAndCount( new ScrollAccess( true ) );
+		Assert.assertEquals( 1 + NUM_EMPLOYEES + NUM_EMPLOYEES * NUM_SUBORDINATES, statementCounts[0] );
+		Assert.assertEquals( statementCounts[0], statementCounts[1] );
+	}
+
+	/**
+	 * Scrolls over the subordinates and accesses their supervisor and their own subordinates.
+	 */
+	private static class ScrollAccess implements SessionWork {
+
+		private final boolean hql;
+
+		ScrollAccess(boolean hql) {
+			this.hql = hql;
+		}
+
+		@Override
+		public void execute(Session sess) {
+			ScrollableResults results;
+			if ( hql ) {
+				Query query = new AutofetchQuery( sess, "from Employee e where e.m_name like :name" );
+				query.setString( "name", "Subordinate%" );
+				results = query.scroll( ScrollMode.FORWARD_ONLY );
+			}
+			else {
+				Criteria crit = new AutofetchCriteria( sess.createCriteria( Employee.class ) );
+				crit.add( Restrictions.like( "m_name", "Subordinate%" ) );
+				results = crit.scroll( ScrollMode.FORWARD_ONLY );
+			}
+			int numRows = 0;
+			while ( results.next() ) {
+				Employee e = (Employee) results.get( 0 );
+				Assert.assertNotNull( e.getSupervisor().getName() );
+				Assert.assertEquals( 0, e.getSubordinates().size() );
+				numRows++;
+			}
+			results.close();
+			Assert.assertEquals( NUM_EMPLOYEES * NUM_SUBORDINATES, numRows );
+		}
+	}
+}
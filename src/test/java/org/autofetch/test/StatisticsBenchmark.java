@@ -0,0 +1,101 @@
+package org.autofetch.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.autofetch.hibernate.Statistics;
+import org.autofetch.hibernate.TraversalProfile;
+
+/**
+ * Throughput of 1, 8 and 32 threads tracking the same association, which is
+ * what happens to the root level statistics of a busy query. The synchronized
+ * variants count the same way Statistics used to, for comparison.
+ * <p>
+ * Run with {@code java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main StatisticsBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class StatisticsBenchmark {
+
+	private final Statistics stats = new Statistics( new TraversalProfile() );
+
+	private final SynchronizedStatistics syncStats = new SynchronizedStatistics();
+
+	@Benchmark
+	@Threads(1)
+	public void striped1() {
+		track();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void striped8() {
+		track();
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void striped32() {
+		track();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void synchronized1() {
+		syncTrack();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void synchronized8() {
+		syncTrack();
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void synchronized32() {
+		syncTrack();
+	}
+
+	private void track() {
+		stats.incrementTotal( 1 );
+		stats.loadedAssociation();
+	}
+
+	private void syncTrack() {
+		syncStats.incrementTotal( 1 );
+		syncStats.loadedAssociation();
+	}
+
+	private static class SynchronizedStatistics {
+
+		private long total;
+
+		private long accessed;
+
+		synchronized void incrementTotal(int amt) {
+			total += amt;
+		}
+
+		synchronized void loadedAssociation() {
+			accessed++;
+			if ( accessed > total ) {
+				throw new IllegalStateException( "accesses " + accessed + " greater than total " + total );
+			}
+		}
+	}
+}
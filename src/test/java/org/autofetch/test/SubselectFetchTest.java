@@ -0,0 +1,53 @@
+package org.autofetch.test;
+
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.autofetch.hibernate.AutofetchCriteria;
+
+/**
+ * Test prefetching several collections of the same entity with follow-up queries instead of joins.
+ */
+public class SubselectFetchTest extends FetchTestCase {
+
+	private static final int NUM_CHILDREN = 2;
+
+	@Test
+	public void testSecondCollectionLoadedBySubselect() {
+		em.clearExtentInformation();
+
+		createEmployees( NUM_CHILDREN, NUM_CHILDREN );
+
+		// First pass only gathers statistics, so each collection is loaded separately.
+		// Second pass joins one collection into the query and loads the other with one more query.
+		long[] statementCounts = profileAndCount( new CollectionAccess() );
+		Assert.assertEquals( 1 + 2 * NUM_EMPLOYEES, statementCounts[0] );
+		Assert.assertEquals( 2, statementCounts[1] );
+	}
+
+	/**
+	 * Queries the employees and accesses their subordinates and friends.
+	 */
+	private static class CollectionAccess implements SessionWork {
+
+		@Override
+		public void execute(Session sess) {
+			Criteria crit = new AutofetchCriteria( sess.createCriteria( Employee.class ) );
+			crit.add( Restrictions.like( "m_name", "Employee%" ) );
+			crit.setResultTransformer( Criteria.DISTINCT_ROOT_ENTITY );
+			List<?> employees = crit.list();
+			Assert.assertEquals( NUM_EMPLOYEES, employees.size() );
+			for ( Object o : employees ) {
+				Employee e = (Employee) o;
+				Assert.assertEquals( NUM_CHILDREN, e.getSubordinates().size() );
+				Assert.assertEquals( NUM_CHILDREN, e.getFriends().size() );
+			}
+		}
+	}
+}